@@ -0,0 +1,92 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * BinaryFormatBenchmark
+ * Encoding and decoding a page of GET /users (MAX_PAGE_SIZE users) in every format the UserController speaks:
+ * JSON, gzip compressed JSON (server.compression), CBOR and Smile (BinaryFormatConfiguration).
+ * The payload size of each format is printed during the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryFormatBenchmark {
+
+    private static final int USERS = 100;
+    private static final TypeReference<List<UserGetDTO>> USER_LIST = new TypeReference<>() { };
+
+    @Param({"json", "json-gzip", "cbor", "smile"})
+    private String format;
+
+    private ObjectMapper objectMapper;
+    private boolean gzip;
+    private List<UserGetDTO> users;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        Jackson2ObjectMapperBuilder builder;
+        switch (format) {
+            case "cbor":
+                builder = Jackson2ObjectMapperBuilder.cbor();
+                break;
+            case "smile":
+                builder = Jackson2ObjectMapperBuilder.smile();
+                break;
+            default:
+                builder = Jackson2ObjectMapperBuilder.json();
+        }
+        objectMapper = builder.featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+        gzip = format.endsWith("-gzip");
+
+        users = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            UserGetDTO user = new UserGetDTO();
+            user.setId((long) i);
+            user.setUsername("user" + i);
+            user.setStatus(i % 2 == 0);
+            user.setCreationDate(LocalDate.of(2022, 3, 1));
+            user.setBirthday(LocalDate.of(2000, 1, 1).plusDays(i));
+            users.add(user);
+        }
+        encoded = encode();
+        System.out.printf("%n%s: %,d bytes for %d users%n", format, encoded.length, USERS);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+        try (OutputStream out = gzip ? new GZIPOutputStream(bytes) : bytes) {
+            objectMapper.writeValue(out, users);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public List<UserGetDTO> decode() throws IOException {
+        try (InputStream in = gzip ? new GZIPInputStream(new ByteArrayInputStream(encoded)) : new ByteArrayInputStream(encoded)) {
+            return objectMapper.readValue(in, USER_LIST);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+
+import ch.uzh.ifi.hase.soprafs22.Application;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.service.UserBatchResult;
+import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IdGenerationBenchmark
+ * Insert throughput (inserts/s) of the bulk path with a sequence call per insert (allocation size 1, the old behaviour)
+ * and with ids reserved in blocks of 50 (pooled-lo).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdGenerationBenchmark {
+
+    private static final int BATCH_SIZE = 500;
+
+    @Param({"1", "50"})
+    private int allocationSize;
+
+    private final AtomicLong nextUser = new AtomicLong();
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.jpa.properties.users.id.allocation-size=" + allocationSize,
+                        "--spring.main.banner-mode=off", "--logging.level.root=warn");
+        userService = context.getBean(UserService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<UserBatchResult> insertBatch() {
+        List<User> batch = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            User user = new User();
+            user.setUsername("ids" + nextUser.getAndIncrement());
+            user.setPassword("Passw0rd");
+            batch.add(user);
+        }
+        return userService.createUsers(batch);
+    }
+}
@@ -0,0 +1,49 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+
+import ch.uzh.ifi.hase.soprafs22.service.PasswordHasher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PasswordHashingBenchmark
+ * Login password check (PasswordHasher.matches, what UserService.checkPassword runs for PUT /users_name/{username})
+ * for different BCrypt costs, to pick users.password.bcrypt-cost for the hardware the server runs on.
+ * One client per core logs in one after the other, the latency of every single password check
+ * (queueing on the hashing pool + BCrypt + hand over to the completion executor) is sampled.
+ * HTTP, the filters and the user lookup are not included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(Threads.MAX)
+@Fork(1)
+public class PasswordHashingBenchmark {
+
+    @Param({"4", "8", "10", "12"})
+    private int cost;
+
+    private PasswordHasher passwordHasher;
+    private String hash;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        passwordHasher = new PasswordHasher(cost, 0, 1024, Runnable::run);
+        hash = passwordHasher.hash("Passw0rd").join();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        passwordHasher.shutdown();
+    }
+
+    @Benchmark
+    public boolean login() {
+        if (!passwordHasher.matches("Passw0rd", hash).join()) {
+            throw new IllegalStateException("password check failed");
+        }
+        return true;
+    }
+}
@@ -0,0 +1,79 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+
+import ch.uzh.ifi.hase.soprafs22.Application;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ProfileUpdateBenchmark
+ * Birthday updates from THREADS concurrent callers (each on its own user),
+ * once with a transaction per update and once with group commit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(ProfileUpdateBenchmark.THREADS)
+@Fork(1)
+public class ProfileUpdateBenchmark {
+
+    static final int THREADS = 32;
+
+    @Param({"false", "true"})
+    private boolean groupCommit;
+
+    private final AtomicInteger nextCaller = new AtomicInteger();
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private List<Long> ids;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .run("--users.profile.group-commit.enabled=" + groupCommit,
+                        "--spring.main.banner-mode=off", "--logging.level.root=warn");
+        userService = context.getBean(UserService.class);
+        ids = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            User user = new User();
+            user.setUsername("profile" + i);
+            user.setPassword("Passw0rd");
+            ids.add(userService.createUser(user).getId());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Caller {
+
+        private long id;
+        private int updates;
+
+        @Setup(Level.Trial)
+        public void setup(ProfileUpdateBenchmark benchmark) {
+            id = benchmark.ids.get(benchmark.nextCaller.getAndIncrement() % THREADS);
+        }
+    }
+
+    @Benchmark
+    public void updateBirthday(Caller caller) {
+        userService.updateBirthday(caller.id, LocalDate.of(2000, 1, 1).plusDays(caller.updates++ % 10000));
+    }
+}
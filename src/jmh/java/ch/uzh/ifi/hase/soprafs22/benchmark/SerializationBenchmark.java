@@ -0,0 +1,56 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SerializationBenchmark
+ * Jackson serialization of UserGetDTO lists as returned by GET /users (page sizes up to MAX_PAGE_SIZE),
+ * with an ObjectMapper configured like the one of Spring Boot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"1", "20", "100"})
+    private int size;
+
+    private ObjectMapper objectMapper;
+    private List<UserGetDTO> users;
+
+    @Setup
+    public void setup() {
+        objectMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        users = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            UserGetDTO user = new UserGetDTO();
+            user.setId((long) i);
+            user.setUsername("user" + i);
+            user.setToken("0c2d4d1b-7bb2-4bd8-9d8b-" + String.format("%012d", i));
+            user.setStatus(i % 2 == 0);
+            user.setCreationDate(LocalDate.of(2022, 3, 1));
+            user.setBirthday(LocalDate.of(2000, 1, 1).plusDays(i));
+            users.add(user);
+        }
+    }
+
+    @Benchmark
+    public byte[] writeUserList() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(users);
+    }
+}
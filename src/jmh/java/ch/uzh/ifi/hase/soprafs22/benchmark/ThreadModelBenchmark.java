@@ -0,0 +1,90 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+
+import ch.uzh.ifi.hase.soprafs22.Application;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ThreadModelBenchmark
+ * Throughput (requests/s) of GET /users (a database query per request) with CONCURRENCY requests in flight,
+ * on the Tomcat platform thread pool (limited to 50 threads) and on virtual threads (the "virtual" profile).
+ * The virtual thread run needs a Java 21+ JVM: ./gradlew jmh -PruntimeJavaVersion=21 -Pjmh.include=ThreadModel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreadModelBenchmark {
+
+    private static final int CONCURRENCY = 1000;
+    private static final int USERS = 500;
+
+    @Param({"platform", "virtual"})
+    private String threadModel;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private HttpRequest request;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SpringApplicationBuilder builder = new SpringApplicationBuilder(Application.class);
+        if ("virtual".equals(threadModel)) {
+            builder.profiles("virtual");
+        }
+        context = builder.run("--server.port=0", "--server.tomcat.threads.max=50",
+                "--spring.main.banner-mode=off", "--logging.level.root=warn");
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            User user = new User();
+            user.setUsername("threads" + i);
+            user.setPassword("Passw0rd");
+            users.add(user);
+        }
+        context.getBean(UserService.class).createUsers(users);
+
+        String port = context.getEnvironment().getProperty("local.server.port");
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/users?limit=50")).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    // sends CONCURRENCY requests at once and waits for all of them
+    @Benchmark
+    @OperationsPerInvocation(CONCURRENCY)
+    public void concurrentRequests() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(CONCURRENCY);
+        AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < CONCURRENCY; i++) {
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                if (error != null || response.statusCode() != 200) {
+                    failures.incrementAndGet();
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+        if (failures.get() > 0) {
+            throw new IllegalStateException(failures.get() + " of " + CONCURRENCY + " requests failed");
+        }
+    }
+}
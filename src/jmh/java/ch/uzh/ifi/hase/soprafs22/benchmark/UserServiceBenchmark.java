@@ -0,0 +1,84 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+
+import ch.uzh.ifi.hase.soprafs22.Application;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Slice;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UserServiceBenchmark
+ * The UserService create and lookup paths against the in-memory H2 database,
+ * with the application context (without the web server) started once per fork.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserServiceBenchmark {
+
+    private static final int USERS = 1000;
+
+    private final AtomicLong nextUser = new AtomicLong();
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private User existingUser;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.main.banner-mode=off", "--logging.level.root=warn");
+        userService = context.getBean(UserService.class);
+        for (int i = 0; i < USERS; i++) {
+            existingUser = userService.createUser(newUser());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public User createUser() {
+        return userService.createUser(newUser());
+    }
+
+    @Benchmark
+    public User getUserById() {
+        return userService.getUserById(existingUser.getId());
+    }
+
+    @Benchmark
+    public User getUserByUsername() {
+        return userService.getUserByUsername(existingUser.getUsername());
+    }
+
+    @Benchmark
+    public UserSummary getUserSummaryById() {
+        return userService.getUserSummaryById(existingUser.getId());
+    }
+
+    @Benchmark
+    public Slice<UserSummary> getUsersPage() {
+        return userService.getUsers(0, 20);
+    }
+
+    private User newUser() {
+        User user = new User();
+        user.setUsername("jmh" + nextUser.getAndIncrement());
+        user.setPassword("Passw0rd");
+        return user;
+    }
+}
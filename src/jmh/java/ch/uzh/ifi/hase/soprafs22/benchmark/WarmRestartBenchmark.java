@@ -0,0 +1,133 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+
+import ch.uzh.ifi.hase.soprafs22.Application;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.service.UserBatchResult;
+import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * WarmRestartBenchmark
+ * Time to the first request after a restart of the "durable" profile (H2 file database), with and without the warm start snapshot.
+ * Every invocation is one restart: the startup (until the application is ready) plus the first request, or plus the requests
+ * of all HOT_USERS users which were active before the restart. The shutdown is not measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class WarmRestartBenchmark {
+
+    private static final int USERS = 50000;
+    private static final int HOT_USERS = 1000;
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"cold", "warm"})
+    private String restart;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final List<User> hotUsers = new ArrayList<>();
+
+    private Path dataDir;
+    private Path snapshot;
+    private ConfigurableApplicationContext context;
+
+    // creates USERS users and reads the HOT_USERS first ones (authenticated) before shutting down
+    @Setup(Level.Trial)
+    public void seed() throws IOException, InterruptedException {
+        dataDir = Files.createTempDirectory("warm-restart");
+        snapshot = dataDir.resolve("warm-start.snapshot");
+        try (ConfigurableApplicationContext seeding = start()) {
+            UserService userService = seeding.getBean(UserService.class);
+            for (int created = 0; created < USERS; created += BATCH_SIZE) {
+                List<User> batch = new ArrayList<>();
+                for (int i = created; i < created + BATCH_SIZE; i++) {
+                    User user = new User();
+                    user.setUsername("restart" + i);
+                    user.setPassword("Passw0rd");
+                    batch.add(user);
+                }
+                for (UserBatchResult result : userService.createUsers(batch)) {
+                    if (result.isCreated() && hotUsers.size() < HOT_USERS) {
+                        hotUsers.add(result.getUser());
+                    }
+                }
+            }
+            readHotUsers(seeding, hotUsers);
+        }
+    }
+
+    // every shutdown writes a new snapshot, the cold start has to remove it first
+    @Setup(Level.Invocation)
+    public void prepareStart() throws IOException {
+        if ("cold".equals(restart)) {
+            Files.deleteIfExists(snapshot);
+        }
+        else if (!Files.exists(snapshot)) {
+            throw new IllegalStateException("no warm start snapshot in " + dataDir);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void shutdown() {
+        context.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDataDir() throws IOException {
+        try (Stream<Path> files = Files.walk(dataDir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public void firstRequest() throws IOException, InterruptedException {
+        context = start();
+        readHotUsers(context, hotUsers.subList(0, 1));
+    }
+
+    @Benchmark
+    public void allHotUsers() throws IOException, InterruptedException {
+        context = start();
+        readHotUsers(context, hotUsers);
+    }
+
+    private ConfigurableApplicationContext start() {
+        return new SpringApplicationBuilder(Application.class)
+                .profiles("durable")
+                .run("--users.data-dir=" + dataDir, "--server.port=0", "--users.password.bcrypt-cost=4",
+                        "--spring.main.banner-mode=off", "--logging.level.root=warn");
+    }
+
+    private void readHotUsers(ConfigurableApplicationContext context, List<User> users) throws IOException, InterruptedException {
+        String port = context.getEnvironment().getProperty("local.server.port");
+        for (User user : users) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/users/" + user.getId()))
+                    .header("Authorization", "Bearer " + user.getToken())
+                    .build();
+            int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            if (status != 200) {
+                throw new IllegalStateException("GET /users/" + user.getId() + " returned " + status);
+            }
+        }
+    }
+}
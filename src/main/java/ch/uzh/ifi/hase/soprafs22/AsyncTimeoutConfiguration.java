@@ -0,0 +1,38 @@
+package ch.uzh.ifi.hase.soprafs22;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Async Timeout Configuration
+ * Async requests (signup and login wait for the hashing pool) keep the global timeout (spring.mvc.async.request-timeout,
+ * the servlet container default when unset), so a stuck request does not hold its connection and admission permit for long.
+ * An endpoint which legitimately runs longer (the export, a StreamingResponseBody) puts its own timeout in milliseconds
+ * into the request attribute TIMEOUT_ATTRIBUTE, it is applied before the async processing starts.
+ * Emitters (the SSE feed of UserChangeFeed) carry their own timeout and need no attribute.
+ */
+@Configuration
+public class AsyncTimeoutConfiguration implements WebMvcConfigurer {
+
+  public static final String TIMEOUT_ATTRIBUTE = AsyncTimeoutConfiguration.class.getName() + ".timeout";
+
+  @Override
+  public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+    configurer.registerCallableInterceptors(new CallableProcessingInterceptor() {
+      @Override
+      public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+        Object timeout = request.getAttribute(TIMEOUT_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (timeout instanceof Long && request instanceof AsyncWebRequest) {
+          ((AsyncWebRequest) request).setTimeout((Long) timeout);
+        }
+      }
+    });
+  }
+}
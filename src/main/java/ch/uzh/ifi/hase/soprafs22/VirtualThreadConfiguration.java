@@ -0,0 +1,53 @@
+package ch.uzh.ifi.hase.soprafs22;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual Thread Configuration
+ * Opt-in mode (users.virtual-threads.enabled=true, or the "virtual" profile which also sizes the connection pool)
+ * in which Tomcat handles every request on its own virtual thread instead of the fixed platform thread pool,
+ * so requests blocked on JDBC no longer hold one of the server.tomcat.threads.max threads.
+ * The code is still compiled for Java 15: the executor is looked up at runtime and needs a Java 21+ JVM
+ * (./gradlew bootRun -PruntimeJavaVersion=21), on older JVMs the platform thread pool is kept.
+ */
+@Configuration
+@ConditionalOnProperty(name = "users.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadConfiguration {
+
+  private final Logger log = LoggerFactory.getLogger(VirtualThreadConfiguration.class);
+
+  @Bean
+  public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+    ExecutorService executor = newVirtualThreadPerTaskExecutor();
+    if (executor == null) {
+      log.warn("Virtual threads are not available on Java {}, requests are handled on the platform thread pool",
+          Runtime.version().feature());
+      return protocolHandler -> { };
+    }
+    log.info("Requests are handled on virtual threads");
+    return protocolHandler -> protocolHandler.setExecutor(executor);
+  }
+
+  // Executors.newVirtualThreadPerTaskExecutor() of Java 21+, null on older JVMs
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+    catch (NoSuchMethodException | InvocationTargetException e) {
+      // missing (before Java 19) or a disabled preview feature (Java 19 and 20)
+      return null;
+    }
+    catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
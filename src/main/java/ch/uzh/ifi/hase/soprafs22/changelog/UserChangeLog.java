@@ -0,0 +1,536 @@
+package ch.uzh.ifi.hase.soprafs22.changelog;
+
+import ch.uzh.ifi.hase.soprafs22.service.UserChangeEvent;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * User Change Log
+ * Append-only history of the committed UserChangeEvents on disk, kept apart from the database so recording it costs
+ * no extra rows in the user transactions. Downstream consumers and rebuilds of the in-memory indexes read it with replay().
+ * The log is a directory of segment files named after the sequence number of their first record (00000000000000000000.log, ...).
+ * The active segment is memory-mapped with its full size, an append is a copy into the mapping, and a new segment is
+ * started when a record no longer fits. Appended records survive a crash of the application (they are in the page cache),
+ * the mappings (the active segment and segments filled since) are forced to the disk every fsync-interval-ms,
+ * never by the appending thread, so a crash of the machine loses at most that much history. The forces run on a thread
+ * of the log (not the shared scheduler thread), so forcing a full segment does not hold up the other scheduled jobs.
+ * Record: length (int, of the body), CRC32C of the body (int), body: type (byte), user id and timestamp (epoch ms) as varints,
+ * then the fields of the type. A zero length ends a segment (the mapped file is zero-filled), so does a torn record
+ * (length or checksum does not match): when the log is opened again, everything after the last complete record is zeroed.
+ * Segments are never deleted by the application. Disabled when users.changelog.dir is empty.
+ */
+@Component
+public class UserChangeLog implements MeterBinder {
+
+    private static final int HEADER_SIZE = 8;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int ZERO_PAGE_SIZE = 4096;
+
+    // record types, part of the file format (unlike the ordinals of UserChangeEvent.Type)
+    private static final byte RECORD_CREATED = 1;
+    private static final byte RECORD_STATUS = 2;
+    private static final byte RECORD_USERNAME = 3;
+    private static final byte RECORD_BIRTHDAY = 4;
+
+    private final Logger log = LoggerFactory.getLogger(UserChangeLog.class);
+    private final Path directory;
+    private final int segmentSize;
+    private final long fsyncIntervalMillis;
+    private ScheduledExecutorService syncer;
+
+    // reused for the body of every append, guarded by this
+    private ByteBuffer scratch = ByteBuffer.allocate(256);
+    private final CRC32C checksum = new CRC32C();
+
+    // guarded by this
+    private final List<Long> segmentBases = new ArrayList<>();
+    private MappedByteBuffer active;
+    // full segments not forced yet, forced by the next sync
+    private final List<MappedByteBuffer> rolled = new ArrayList<>();
+    private long nextSequence;
+    private boolean dirty;
+    private long appended;
+
+    public UserChangeLog(@Value("${users.changelog.dir:}") String directory,
+                         @Value("${users.changelog.segment-size:67108864}") int segmentSize,
+                         @Value("${users.changelog.fsync-interval-ms:1000}") long fsyncIntervalMillis) {
+        this.directory = directory.isBlank() ? null : Path.of(directory);
+        this.segmentSize = Math.max(segmentSize, 4096);
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * Maps the last segment (or creates the first one) and continues after its last complete record, zeroing the rest.
+     */
+    @PostConstruct
+    public synchronized void open() throws IOException {
+        if (directory == null) {
+            return;
+        }
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            segmentBases.addAll(files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList()));
+        }
+        if (segmentBases.isEmpty()) {
+            startSegment(0);
+        }
+        else {
+            recover();
+        }
+        syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "user-change-log-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.scheduleWithFixedDelay(this::syncQuietly, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // maps the last segment and continues after its last complete record
+    private void recover() throws IOException {
+        long base = segmentBases.get(segmentBases.size() - 1);
+        active = map(segmentPath(base), FileChannel.MapMode.READ_WRITE);
+        int[] records = new int[1];
+        int end = scan(active, body -> records[0]++);
+        if (zeroFrom(end)) {
+            log.warn("User change log {}: dropped the data after sequence {}", directory, base + records[0]);
+        }
+        active.position(end);
+        nextSequence = base + records[0];
+        log.info("User change log {}: {} segments, continuing at sequence {}", directory, segmentBases.size(), nextSequence);
+    }
+
+    @PreDestroy
+    public void close() {
+        ScheduledExecutorService running;
+        synchronized (this) {
+            running = syncer;
+        }
+        if (running != null) {
+            running.shutdown();
+            try {
+                running.awaitTermination(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        sync();
+    }
+
+    // after the commit of the change, directly for changes without transaction (status toggles)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserChange(UserChangeEvent event) {
+        try {
+            append(event, System.currentTimeMillis());
+        }
+        catch (IOException | IllegalArgumentException e) {
+            // the change itself is committed, only its history entry is lost
+            log.error("Could not append the change of user {} to the user change log", event.getId(), e);
+        }
+    }
+
+    /**
+     * @return the sequence number of the record, or -1 if the log is disabled
+     */
+    public synchronized long append(UserChangeEvent event, long timestamp) throws IOException {
+        if (active == null) {
+            return -1;
+        }
+        ByteBuffer body = encode(event, timestamp);
+        if (HEADER_SIZE + body.remaining() > active.remaining()) {
+            if (HEADER_SIZE + body.remaining() > segmentSize) {
+                throw new IOException("Change record of " + body.remaining() + " bytes exceeds the segment size");
+            }
+            // the full segment goes to the disk with the next sync, not on the committing thread
+            rolled.add(active);
+            startSegment(nextSequence);
+        }
+        int position = active.position();
+        checksum.reset();
+        checksum.update(body.duplicate());
+        active.position(position + HEADER_SIZE);
+        active.put(body);
+        active.putInt(position + 4, (int) checksum.getValue());
+        // the length last: a record without it is not there
+        active.putInt(position, body.limit());
+        dirty = true;
+        appended++;
+        return nextSequence++;
+    }
+
+    /**
+     * Reads the records in order, starting with the record fromSequence (or the oldest one, if that is later),
+     * up to the last record appended when the replay started.
+     * The segments are mapped read-only and read sequentially, appends continue in the meantime.
+     *
+     * @return the sequence number after the last replayed record, where the next replay continues
+     */
+    public long replay(long fromSequence, Consumer<Entry> consumer) throws IOException {
+        List<Long> bases;
+        long end;
+        synchronized (this) {
+            if (directory == null) {
+                return fromSequence;
+            }
+            bases = new ArrayList<>(segmentBases);
+            end = nextSequence;
+        }
+        long sequence = fromSequence;
+        for (int i = 0; i < bases.size() && sequence < end; i++) {
+            long base = bases.get(i);
+            long nextBase = i + 1 < bases.size() ? bases.get(i + 1) : end;
+            if (nextBase <= sequence) {
+                continue;
+            }
+            long[] current = {base};
+            long from = sequence;
+            scan(map(segmentPath(base), FileChannel.MapMode.READ_ONLY), body -> {
+                long recordSequence = current[0]++;
+                if (recordSequence >= from && recordSequence < end) {
+                    consumer.accept(decode(recordSequence, body));
+                }
+            });
+            sequence = Math.max(sequence, Math.min(current[0], end));
+        }
+        return sequence;
+    }
+
+    // a failed force is retried with the next one, an exception would end the periodic syncs
+    private void syncQuietly() {
+        try {
+            sync();
+        }
+        catch (RuntimeException e) {
+            log.error("Could not force the user change log {} to the disk", directory, e);
+        }
+    }
+
+    // forces the records appended since the last sync to the disk, every fsync-interval-ms and on close
+    public void sync() {
+        List<MappedByteBuffer> toForce;
+        synchronized (this) {
+            if (!dirty && rolled.isEmpty()) {
+                return;
+            }
+            toForce = new ArrayList<>(rolled);
+            rolled.clear();
+            if (dirty) {
+                toForce.add(active);
+                dirty = false;
+            }
+        }
+        // outside the lock, appends into the same mapping continue meanwhile
+        for (MappedByteBuffer segment : toForce) {
+            segment.force();
+        }
+    }
+
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    public synchronized long getAppendedCount() {
+        return appended;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segmentBases.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("users.changelog.records", this, UserChangeLog::getAppendedCount)
+                .description("User changes appended to the change log")
+                .register(registry);
+        Gauge.builder("users.changelog.segments", this, UserChangeLog::getSegmentCount)
+                .description("Segment files of the user change log")
+                .register(registry);
+    }
+
+    private void startSegment(long base) throws IOException {
+        active = map(segmentPath(base), FileChannel.MapMode.READ_WRITE);
+        segmentBases.add(base);
+        nextSequence = base;
+    }
+
+    /**
+     * Zeroes the active segment from the given position on, page by page where a page is not zero already.
+     * Not only the rest of a torn record: after a crash of the machine (pages are written back in any order) complete
+     * older records can follow a page which did not reach the disk. An append ending where one of them starts
+     * would make it (and all following) part of the log again, so the whole rest goes.
+     * The zeros are forced before the first append, else the same could happen after the next crash.
+     *
+     * @return whether there was data to drop
+     */
+    private boolean zeroFrom(int from) {
+        byte[] zeros = new byte[ZERO_PAGE_SIZE];
+        boolean zeroed = false;
+        for (int page = from; page < active.limit(); ) {
+            int pageEnd = Math.min(active.limit(), (page / ZERO_PAGE_SIZE + 1) * ZERO_PAGE_SIZE);
+            if (!isZero(active, page, pageEnd)) {
+                active.position(page);
+                active.put(zeros, 0, pageEnd - page);
+                zeroed = true;
+            }
+            page = pageEnd;
+        }
+        if (zeroed) {
+            active.force();
+        }
+        return zeroed;
+    }
+
+    private static boolean isZero(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            if (buffer.getLong(i) != 0) {
+                return false;
+            }
+        }
+        for (; i < to; i++) {
+            if (buffer.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Path segmentPath(long base) {
+        return directory.resolve(String.format("%020d", base) + SEGMENT_SUFFIX);
+    }
+
+    // the mapping stays valid after the channel is closed, a READ_WRITE mapping extends the file to the segment size
+    private MappedByteBuffer map(Path path, FileChannel.MapMode mode) throws IOException {
+        if (mode == FileChannel.MapMode.READ_ONLY) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return channel.map(mode, 0, channel.size());
+            }
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(mode, 0, Math.max(channel.size(), segmentSize));
+        }
+    }
+
+    /**
+     * Passes the body of every complete record to the visitor.
+     *
+     * @return the position after the last complete record
+     */
+    static int scan(ByteBuffer segment, Consumer<ByteBuffer> visitor) {
+        CRC32C crc = new CRC32C();
+        int position = 0;
+        while (position + HEADER_SIZE <= segment.limit()) {
+            int length = segment.getInt(position);
+            if (length <= 0 || length > segment.limit() - position - HEADER_SIZE) {
+                break;
+            }
+            ByteBuffer body = segment.duplicate();
+            body.limit(position + HEADER_SIZE + length).position(position + HEADER_SIZE);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != segment.getInt(position + 4)) {
+                break;
+            }
+            visitor.accept(body);
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    private ByteBuffer encode(UserChangeEvent event, long timestamp) {
+        scratch.clear();
+        switch (event.getType()) {
+            case CREATED:
+                putHeader(RECORD_CREATED, event, timestamp);
+                putStatus(event.getStatus());
+                putString(event.getUsername());
+                putDate(event.getCreationDate());
+                break;
+            case STATUS:
+                putHeader(RECORD_STATUS, event, timestamp);
+                putStatus(event.getStatus());
+                break;
+            case USERNAME:
+                putHeader(RECORD_USERNAME, event, timestamp);
+                putString(event.getUsername());
+                break;
+            case BIRTHDAY:
+                putHeader(RECORD_BIRTHDAY, event, timestamp);
+                putDate(event.getBirthday());
+                break;
+            default:
+                // a new type needs its own record type, decode could not read it back otherwise
+                throw new IllegalArgumentException("No change record type for " + event.getType());
+        }
+        return scratch.flip();
+    }
+
+    private static Entry decode(long sequence, ByteBuffer body) {
+        byte type = body.get();
+        long id = getVarLong(body);
+        long timestamp = getVarLong(body);
+        UserChangeEvent event;
+        switch (type) {
+            case RECORD_CREATED:
+                Boolean status = getStatus(body);
+                String username = getString(body);
+                event = UserChangeEvent.created(id, username, status, getDate(body));
+                break;
+            case RECORD_STATUS:
+                event = UserChangeEvent.status(id, Boolean.TRUE.equals(getStatus(body)));
+                break;
+            case RECORD_USERNAME:
+                event = UserChangeEvent.username(id, getString(body));
+                break;
+            case RECORD_BIRTHDAY:
+                event = UserChangeEvent.birthday(id, getDate(body));
+                break;
+            default:
+                throw new IllegalStateException("Unknown change record type " + type + " at sequence " + sequence);
+        }
+        return new Entry(sequence, timestamp, event);
+    }
+
+    private void putHeader(byte type, UserChangeEvent event, long timestamp) {
+        ensureCapacity(1 + 10 + 10);
+        scratch.put(type);
+        putVarLong(event.getId());
+        putVarLong(timestamp);
+    }
+
+    // 0 false, 1 true, 2 unknown
+    private void putStatus(Boolean status) {
+        ensureCapacity(1);
+        scratch.put(status == null ? (byte) 2 : status ? (byte) 1 : (byte) 0);
+    }
+
+    private static Boolean getStatus(ByteBuffer body) {
+        byte status = body.get();
+        return status == 2 ? null : status == 1;
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(5 + bytes.length);
+        putVarLong(bytes.length);
+        scratch.put(bytes);
+    }
+
+    private static String getString(ByteBuffer body) {
+        byte[] bytes = new byte[(int) getVarLong(body)];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // epoch day zigzag encoded (birthdays before 1970 are negative) plus one, 0 for no date
+    private void putDate(LocalDate date) {
+        ensureCapacity(10);
+        if (date == null) {
+            putVarLong(0);
+        }
+        else {
+            long epochDay = date.toEpochDay();
+            putVarLong(((epochDay << 1) ^ (epochDay >> 63)) + 1);
+        }
+    }
+
+    private static LocalDate getDate(ByteBuffer body) {
+        long encoded = getVarLong(body);
+        if (encoded == 0) {
+            return null;
+        }
+        long zigzag = encoded - 1;
+        return LocalDate.ofEpochDay((zigzag >>> 1) ^ -(zigzag & 1));
+    }
+
+    // 7 bits per byte, high bit set on all but the last byte (ids and timestamps are never negative)
+    private void putVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            scratch.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        scratch.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer body) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = body.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (scratch.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(scratch.capacity() * 2, scratch.position() + bytes));
+            scratch.flip();
+            larger.put(scratch);
+            scratch = larger;
+        }
+    }
+
+    public static final class Entry {
+
+        private final long sequence;
+        private final long timestamp;
+        private final UserChangeEvent event;
+
+        private Entry(long sequence, long timestamp, UserChangeEvent event) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.event = event;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        // epoch milliseconds of the append
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public UserChangeEvent getEvent() {
+            return event;
+        }
+    }
+}
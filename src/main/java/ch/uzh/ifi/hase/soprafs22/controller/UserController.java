@@ -1,19 +1,41 @@
 package ch.uzh.ifi.hase.soprafs22.controller;
 
+import ch.uzh.ifi.hase.soprafs22.AsyncTimeoutConfiguration;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.feed.UserChangeFeed;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserBatchItemDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPutDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs22.security.TokenAuthenticationFilter;
+import ch.uzh.ifi.hase.soprafs22.service.UserBatchResult;
 import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Type;
 import java.sql.SQLOutput;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.Date;
 
 /**
@@ -25,38 +47,154 @@ import java.util.Date;
 public class UserController {
 
     private final UserService userService;
+    private final ObjectMapper objectMapper;
+    private final UserChangeFeed userChangeFeed;
+    private final long exportTimeoutMillis;
 
-    UserController(UserService userService) {
+    UserController(UserService userService, ObjectMapper objectMapper, UserChangeFeed userChangeFeed,
+                   @Value("${users.export.timeout-ms:600000}") long exportTimeoutMillis) {
         this.userService = userService;
+        this.objectMapper = objectMapper;
+        this.userChangeFeed = userChangeFeed;
+        this.exportTimeoutMillis = exportTimeoutMillis;
     }
 
+    // keyset paginated: ?after=<last id of the previous page>&limit=<page size>
+    // the cursor for the next page is sent in the Link header (rel="next"), it is missing on the last page
+    // the ETag is the collection-wide version of the users, an unchanged poll gets 304 before any user is loaded
+    // (weak, like all ETags here: the body differs by format and compression, see BinaryFormatConfiguration)
     @GetMapping("/users")
-    @ResponseStatus(HttpStatus.OK)
     @ResponseBody
-    public List<UserGetDTO> getAllUsers() {
-        // fetch all users in the internal representation
-        List<User> users = userService.getUsers();
+    public ResponseEntity<List<UserGetDTO>> getAllUsers(@RequestParam(defaultValue = "0") long after,
+                                                        @RequestParam(defaultValue = "50") int limit,
+                                                        WebRequest request) {
+        if (request.checkNotModified("W/\"" + userService.getUsersVersion() + "." + after + "." + limit + "\"")) {
+            return null;
+        }
+
+        // fetch one page of users, only the exposed columns (UserSummary projections, no entities)
+        Slice<UserSummary> users = userService.getUsers(after, limit);
         List<UserGetDTO> userGetDTOs = new ArrayList<>();
 
         // convert each user to the API representation
-        for (User user : users) {
-            userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+        for (UserSummary user : users) {
+            userGetDTOs.add(DTOMapper.INSTANCE.convertSummaryToUserGetDTO(user));
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (users.hasNext() && !userGetDTOs.isEmpty()) {
+            long nextCursor = userGetDTOs.get(userGetDTOs.size() - 1).getId();
+            String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("after", nextCursor)
+                    .replaceQueryParam("limit", users.getSize())
+                    .toUriString();
+            response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
         }
-        return userGetDTOs;
+        return response.body(userGetDTOs);
+    }
+
+    // full user directory as newline-delimited JSON (one UserGetDTO per line), meant for bulk syncs
+    // the rows are written to the response while they are read, so memory use does not grow with the table
+    // a full export takes longer than other async requests, it gets its own timeout (see AsyncTimeoutConfiguration)
+    @GetMapping(value = "/users/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportUsers(WebRequest request) {
+        request.setAttribute(AsyncTimeoutConfiguration.TIMEOUT_ATTRIBUTE, exportTimeoutMillis, RequestAttributes.SCOPE_REQUEST);
+        ObjectWriter writer = objectMapper.writerFor(UserGetDTO.class);
+        StreamingResponseBody body = outputStream -> userService.exportUsers(user -> {
+            try {
+                outputStream.write(writer.writeValueAsBytes(DTOMapper.INSTANCE.convertSummaryToUserGetDTO(user)));
+                outputStream.write('\n');
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    // live changes of the users as Server-Sent Events (one "change" event per UserChangeDTO), replaces polling GET /users
+    // a reconnecting client sends the Last-Event-ID it got last and receives the changes it missed,
+    // or a "resync" event if they are no longer buffered (then it reloads GET /users)
+    @GetMapping(value = "/users/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamUserChanges(@RequestHeader(name = "Last-Event-ID", required = false) Long lastEventId) {
+        return userChangeFeed.subscribe(lastEventId);
+    }
+
+    // type-ahead: usernames starting with the prefix (ignoring case), alphabetically, at most limit (<= 50)
+    // answered from memory (UsernamePrefixIndex), the database is not queried
+    @GetMapping("/users/search")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public List<String> searchUsernames(@RequestParam String prefix, @RequestParam(defaultValue = "10") int limit) {
+        return userService.searchUsernames(prefix, limit);
+    }
+
+    // typo tolerant search: usernames similar to q (shared trigrams), most similar first, at most limit (<= 50)
+    // answered from memory (UsernameTrigramIndex), the database is not queried
+    @GetMapping("/users/search/fuzzy")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public List<String> searchUsernamesFuzzy(@RequestParam String q, @RequestParam(defaultValue = "10") int limit) {
+        return userService.searchUsernamesFuzzy(q, limit);
     }
 
+    // signup, the password is hashed asynchronously on the hashing pool (no request thread waits for it)
     @PostMapping("/users")
-    @ResponseStatus(HttpStatus.CREATED)
     @ResponseBody
-    public UserGetDTO createUser(@RequestBody UserPostDTO userPostDTO) {
+    public CompletableFuture<ResponseEntity<UserGetDTO>> createUser(@RequestBody UserPostDTO userPostDTO) {
         // convert API user to internal representation
         User userInput = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
 
-        // create user
-        User createdUser = userService.createUser(userInput);
+        return userService.hashPassword(userInput.getPassword()).thenApply(hashedPassword -> {
+            // create user
+            userInput.setPassword(hashedPassword);
+            User createdUser = userService.createUser(userInput);
 
-        // convert internal representation of user back to API
-        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(createdUser);
+            // convert internal representation of user back to API
+            return ResponseEntity.status(HttpStatus.CREATED)
+                    .header(TokenAuthenticationFilter.TOKEN_HEADER, createdUser.getToken())
+                    .body(DTOMapper.INSTANCE.convertEntityToUserGetDTO(createdUser));
+        });
+    }
+
+    // bulk signup for onboarding jobs, all users are created in one transaction with batched inserts
+    // returns one result per submitted user (same order): 201 with the user, or 400/409 with the reason
+    @PostMapping("/users/batch")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public CompletableFuture<List<UserBatchItemDTO>> createUsers(@RequestBody List<UserPostDTO> userPostDTOs) {
+        // convert API users to internal representation
+        List<User> userInputs = new ArrayList<>();
+        List<String> passwords = new ArrayList<>();
+        for (UserPostDTO userPostDTO : userPostDTOs) {
+            User userInput = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+            userInputs.add(userInput);
+            passwords.add(userInput.getPassword());
+        }
+
+        return userService.hashPasswords(passwords).thenApply(hashedPasswords -> {
+            for (int i = 0; i < userInputs.size(); i++) {
+                userInputs.get(i).setPassword(hashedPasswords.get(i));
+            }
+
+            // create users
+            List<UserBatchResult> results = userService.createUsers(userInputs);
+
+            // convert the per-item results to the API representation
+            List<UserBatchItemDTO> items = new ArrayList<>();
+            for (int i = 0; i < results.size(); i++) {
+                UserBatchResult result = results.get(i);
+                UserBatchItemDTO item = new UserBatchItemDTO();
+                item.setIndex(i);
+                item.setStatus(result.getStatus().value());
+                if (result.isCreated()) {
+                    item.setUser(DTOMapper.INSTANCE.convertEntityToUserGetDTO(result.getUser()));
+                }
+                item.setError(result.getError());
+                items.add(item);
+            }
+            return items;
+        });
     }
 
     /**
@@ -65,19 +203,33 @@ public class UserController {
      */
 
 
+    // no @ResponseStatus on the GETs with ETags, it would overwrite the 304 of checkNotModified
     @GetMapping("/users/{id}")
-    @ResponseStatus(HttpStatus.OK)
     @ResponseBody
-    public UserGetDTO getUser(@PathVariable long id) {
-        userService.existsById(id); //checks if the user actually exists by ID.
-        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(userService.getUserById(id));
+    public UserGetDTO getUser(@PathVariable long id, WebRequest request) {
+        UserSummary user = userService.getUserSummaryById(id);
+        if (user == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found by ID Errorcode 404");
+        }
+        if (request.checkNotModified(eTag(user))) {
+            return null;
+        }
+        return DTOMapper.INSTANCE.convertSummaryToUserGetDTO(user);
     }
 
     @GetMapping("/users_name/{username}")
-    @ResponseStatus(HttpStatus.OK)
     @ResponseBody
-    public UserGetDTO getUser(@PathVariable String username) {
-        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(userService.getUserByUsername(username));
+    public UserGetDTO getUser(@PathVariable String username, WebRequest request) {
+        UserSummary user = userService.getUserSummaryByUsername(username);
+        if (user != null && request.checkNotModified(eTag(user))) {
+            return null;
+        }
+        return DTOMapper.INSTANCE.convertSummaryToUserGetDTO(user);
+    }
+
+    // ETag of a single user: the entity version covers the profile, the status comes from the presence registry
+    private static String eTag(UserSummary user) {
+        return "W/\"" + user.getId() + "." + user.getVersion() + "." + user.getStatus() + "\"";
     }
 
     // Server: UserService
@@ -91,11 +243,15 @@ public class UserController {
 
     // Server: UserService
     // Client: Edit.js - changeUsername
-    // updates username
+    // updates username, the body is the new username as a string (bound by Jackson, so also as CBOR or Smile)
     @PutMapping("/users/{id}/username")
     @ResponseStatus(HttpStatus.NO_CONTENT)
-    public void updateUsername(@PathVariable long id, @RequestBody String username){
-        userService.updateUsername(id, username.replace("\"", ""));
+    public void updateUsername(@PathVariable long id, @RequestBody UserPutDTO userPutDTO){
+        String username = userPutDTO.getUsername();
+        if (username == null || username.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The username must not be empty");
+        }
+        userService.updateUsername(id, username);
     }
 
     // Server: UserService
@@ -111,20 +267,34 @@ public class UserController {
     }
 
     //the login function, conflict throws 409
+    // a request authenticated with the token of this user (see TokenAuthenticationFilter) needs no password
+    // otherwise the password is checked asynchronously on the hashing pool
     @PutMapping("/users_name/{username}")
-    @ResponseStatus(HttpStatus.OK)
     @ResponseBody
-    public UserGetDTO login(@RequestBody UserPostDTO userPostDTO, @PathVariable String username) {
-        User userInput = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+    public CompletableFuture<ResponseEntity<UserGetDTO>> login(@RequestBody(required = false) UserPostDTO userPostDTO, @PathVariable String username,
+                                                               @RequestAttribute(name = TokenAuthenticationFilter.AUTHENTICATED_USER_ID, required = false) Long authenticatedUserId) {
         User user = userService.getUserByUsername(username);
         if (user == null) {
             throw new ResponseStatusException(HttpStatus.CONFLICT, "Wrong username");
         }
-        else if (user.getPassword().equals(userInput.getPassword())) {
-            return DTOMapper.INSTANCE.convertEntityToUserGetDTO(user);
+        else if (user.getId().equals(authenticatedUserId)) {
+            return CompletableFuture.completedFuture(loggedIn(user));
         }
-        else {
+        else if (userPostDTO == null) {
             throw new ResponseStatusException(HttpStatus.CONFLICT, "wrong password");
         }
+        return userService.checkPassword(user, userPostDTO.getPassword()).thenApply(matches -> {
+            if (!matches) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "wrong password");
+            }
+            return loggedIn(user);
+        });
+    }
+
+    // the user and its token (for the Authorization header of the following requests)
+    private static ResponseEntity<UserGetDTO> loggedIn(User user) {
+        return ResponseEntity.ok()
+                .header(TokenAuthenticationFilter.TOKEN_HEADER, user.getToken())
+                .body(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
     }
 }
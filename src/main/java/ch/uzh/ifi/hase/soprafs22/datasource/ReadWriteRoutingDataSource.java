@@ -0,0 +1,57 @@
+package ch.uzh.ifi.hase.soprafs22.datasource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Read Write Routing DataSource
+ * Hands out connections of the replica pool inside read-only transactions (@Transactional(readOnly = true))
+ * and connections of the primary pool for everything else. Reads fall back to the primary while the
+ * ReplicaLagMonitor reports the replica as unreachable or lagging, and when a replica connection can not be opened.
+ * Has to be wrapped in a LazyConnectionDataSourceProxy: the transaction is only marked read-only after it began,
+ * the connection must not be chosen before the first statement.
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+    enum Route {
+        PRIMARY, REPLICA
+    }
+
+    private final DataSource primary;
+    private final DataSource replica;
+    private final ReplicaLagMonitor replicaLagMonitor;
+
+    public ReadWriteRoutingDataSource(DataSource primary, DataSource replica, ReplicaLagMonitor replicaLagMonitor) {
+        this.primary = primary;
+        this.replica = replica;
+        this.replicaLagMonitor = replicaLagMonitor;
+        setTargetDataSources(Map.of(Route.PRIMARY, primary, Route.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        boolean readOnly = TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+        return readOnly && replicaLagMonitor.isReplicaAvailable() ? Route.REPLICA : Route.PRIMARY;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (determineCurrentLookupKey() == Route.REPLICA) {
+            try {
+                return replica.getConnection();
+            }
+            catch (SQLException e) {
+                // until the next successful check all reads go to the primary
+                replicaLagMonitor.markUnavailable(e);
+            }
+        }
+        return primary.getConnection();
+    }
+}
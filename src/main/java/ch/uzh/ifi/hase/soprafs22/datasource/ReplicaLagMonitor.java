@@ -0,0 +1,89 @@
+package ch.uzh.ifi.hase.soprafs22.datasource;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Replica Lag Monitor
+ * Checks the replica every users.datasource.replica.check-interval-ms with the lag query, which returns the replication
+ * lag in milliseconds (for example on PostgreSQL: SELECT EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000).
+ * The replica is used for reads only while the last check succeeded with a lag of at most max-lag-ms.
+ * Until the first check the replica counts as unavailable, so reads start on the primary.
+ */
+public class ReplicaLagMonitor implements MeterBinder {
+
+    private final Logger log = LoggerFactory.getLogger(ReplicaLagMonitor.class);
+    private final DataSource replica;
+    private final String lagQuery;
+    private final long maxLagMillis;
+
+    private volatile boolean available;
+    private volatile long lagMillis = -1;
+
+    public ReplicaLagMonitor(DataSource replica, String lagQuery, long maxLagMillis) {
+        this.replica = replica;
+        this.lagQuery = lagQuery;
+        this.maxLagMillis = maxLagMillis;
+    }
+
+    @Scheduled(fixedDelayString = "${users.datasource.replica.check-interval-ms:1000}")
+    public void check() {
+        try (Connection connection = replica.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout(1);
+            try (ResultSet resultSet = statement.executeQuery(lagQuery)) {
+                resultSet.next();
+                lagMillis = resultSet.getLong(1);
+            }
+            boolean withinLag = lagMillis <= maxLagMillis;
+            if (withinLag != available) {
+                log.info("Replica lag {} ms, reads go to the {}", lagMillis, withinLag ? "replica" : "primary");
+            }
+            available = withinLag;
+        }
+        catch (SQLException e) {
+            markUnavailable(e);
+        }
+    }
+
+    // the replica could not be reached, reads go to the primary until the next successful check
+    public void markUnavailable(SQLException cause) {
+        if (available) {
+            log.warn("Replica unavailable, reads go to the primary: {}", cause.getMessage());
+        }
+        available = false;
+        lagMillis = -1;
+    }
+
+    public boolean isReplicaAvailable() {
+        return available;
+    }
+
+    // -1 while the replica is unavailable
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    public long getMaxLagMillis() {
+        return maxLagMillis;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.datasource.replica.lag", this, ReplicaLagMonitor::getLagMillis)
+                .baseUnit("milliseconds")
+                .register(registry);
+        Gauge.builder("users.datasource.replica.available", this, monitor -> monitor.isReplicaAvailable() ? 1 : 0)
+                .register(registry);
+    }
+}
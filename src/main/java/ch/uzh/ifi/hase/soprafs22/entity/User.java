@@ -1,6 +1,8 @@
 package ch.uzh.ifi.hase.soprafs22.entity;
 
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
 
 import javax.persistence.*;
 import java.io.Serializable;
@@ -13,21 +15,29 @@ import java.util.Date;
  * Every variable will be mapped into a database field with the @Column annotation
  * - nullable = false -> this cannot be left empty
  * - unique = true -> this value must be unqiue across the database -> composes the primary key
+ * Updates only write the changed columns (@DynamicUpdate), the status column is written separately
+ * by the presence write-behind and must not be overwritten by profile edits.
  */
 @Entity
-@Table(name = "USER")
+@DynamicUpdate
+@Table(name = "USER", uniqueConstraints = @UniqueConstraint(name = User.USERNAME_CONSTRAINT, columnNames = "username"))
 public class User implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    // named, so a violation can be told apart from the other constraints (see GlobalExceptionAdvice)
+    public static final String USERNAME_CONSTRAINT = "UK_USER_USERNAME";
+
+    // ids are reserved in blocks from user_sequence (see UserIdGenerator)
     @Id
-    @GeneratedValue
+    @GeneratedValue(generator = "user_id")
+    @GenericGenerator(name = "user_id", strategy = "ch.uzh.ifi.hase.soprafs22.entity.UserIdGenerator")
     private Long id;
 
     @Column(nullable = false)
     private String password;
 
-    @Column(nullable = false, unique = true)
+    @Column(nullable = false)
     private String username;
 
     @Column(nullable = false, unique = true)
@@ -42,6 +52,10 @@ public class User implements Serializable {
     @Column
     private LocalDate birthday;
 
+    // incremented by every profile update, part of the ETag (the online status is tracked separately)
+    @Version
+    private Long version;
+
     public LocalDate getBirthday() {
         return birthday;
     }
@@ -90,6 +104,14 @@ public class User implements Serializable {
         this.token = token;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public Boolean getStatus() {
         return status;
     }
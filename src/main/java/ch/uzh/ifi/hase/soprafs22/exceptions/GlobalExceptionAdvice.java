@@ -1,10 +1,14 @@
 package ch.uzh.ifi.hase.soprafs22.exceptions;
 
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import org.hibernate.exception.ConstraintViolationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.transaction.TransactionSystemException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -15,6 +19,7 @@ import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.Locale;
 
 @ControllerAdvice(annotations = RestController.class)
 public class GlobalExceptionAdvice extends ResponseEntityExceptionHandler {
@@ -27,6 +32,36 @@ public class GlobalExceptionAdvice extends ResponseEntityExceptionHandler {
     return handleExceptionInternal(ex, bodyOfResponse, new HttpHeaders(), HttpStatus.CONFLICT, request);
   }
 
+  // the unique constraint of the username is the final arbiter when two requests race past the checks,
+  // any other violated constraint (a missing value, a token collision) is not the client's username
+  @ExceptionHandler(DataIntegrityViolationException.class)
+  protected ResponseEntity<Object> handleDataIntegrityViolation(DataIntegrityViolationException ex, WebRequest request) {
+    if (violates(ex, User.USERNAME_CONSTRAINT)) {
+      String bodyOfResponse = "This username is already taken.";
+      return handleExceptionInternal(ex, bodyOfResponse, new HttpHeaders(), HttpStatus.CONFLICT, request);
+    }
+    log.error("Data integrity violation", ex);
+    String bodyOfResponse = "The user could not be stored.";
+    return handleExceptionInternal(ex, bodyOfResponse, new HttpHeaders(), HttpStatus.INTERNAL_SERVER_ERROR, request);
+  }
+
+  // by the constraint name Hibernate extracted, otherwise by the message of the database
+  private static boolean violates(DataIntegrityViolationException ex, String constraint) {
+    String violated = ex.getCause() instanceof ConstraintViolationException
+        ? ((ConstraintViolationException) ex.getCause()).getConstraintName() : null;
+    if (violated == null) {
+      violated = ex.getMostSpecificCause().getMessage();
+    }
+    return violated != null && violated.toUpperCase(Locale.ROOT).contains(constraint);
+  }
+
+  // two concurrent edits of the same user (User.version), the later one loses
+  @ExceptionHandler(ObjectOptimisticLockingFailureException.class)
+  protected ResponseEntity<Object> handleOptimisticLockingFailure(ObjectOptimisticLockingFailureException ex, WebRequest request) {
+    String bodyOfResponse = "The user was changed concurrently, please retry.";
+    return handleExceptionInternal(ex, bodyOfResponse, new HttpHeaders(), HttpStatus.CONFLICT, request);
+  }
+
   @ExceptionHandler(TransactionSystemException.class)
   public ResponseStatusException handleTransactionSystemException(Exception ex, HttpServletRequest request) {
     log.error("Request: {} raised {}", request.getRequestURL(), ex);
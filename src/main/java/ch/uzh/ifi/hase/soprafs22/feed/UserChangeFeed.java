@@ -0,0 +1,264 @@
+package ch.uzh.ifi.hase.soprafs22.feed;
+
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserChangeDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs22.service.UserChangeEvent;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * User Change Feed
+ * Pushes the committed UserChangeEvents to the subscribers of GET /users/changes (Server-Sent Events),
+ * so clients no longer have to poll GET /users for status flips and profile edits.
+ * Publishing never blocks on a client: every change gets a sequence number (the SSE id) and is only put into the
+ * bounded buffer of every subscriber, the writes happen on a small dispatcher pool, one drain task per subscriber at a time.
+ * A subscriber whose buffer is full is too slow: its buffered changes are dropped and it gets a "resync" event,
+ * after which it has to reload the users (GET /users) and continues with the following changes.
+ * The last changes are kept for reconnects: a client reconnecting with Last-Event-ID gets what it missed,
+ * or a "resync" if the missed changes are no longer kept (or the sequence restarted with the application).
+ */
+@Component
+public class UserChangeFeed implements MeterBinder {
+
+    // queued instead of a change, see Subscriber
+    private static final Object RESYNC = new Object();
+    private static final Object HEARTBEAT = new Object();
+
+    private final int bufferSize;
+    private final int maxSubscribers;
+    private final long timeoutMillis;
+    private final int replaySize;
+    private final Executor dispatcher;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    // guarded by itself, also orders the offers: every subscriber receives the changes in sequence order
+    private final Deque<Change> recentChanges = new ArrayDeque<>();
+    private long sequence;
+
+    private final LongAdder resyncs = new LongAdder();
+
+    @Autowired
+    public UserChangeFeed(@Value("${users.feed.buffer-size:256}") int bufferSize,
+                          @Value("${users.feed.max-subscribers:10000}") int maxSubscribers,
+                          @Value("${users.feed.timeout-ms:1800000}") long timeoutMillis,
+                          @Value("${users.feed.replay-size:1024}") int replaySize,
+                          @Value("${users.feed.dispatch-threads:4}") int dispatchThreads) {
+        this(bufferSize, maxSubscribers, timeoutMillis, replaySize, newDispatcher(dispatchThreads));
+    }
+
+    UserChangeFeed(int bufferSize, int maxSubscribers, long timeoutMillis, int replaySize, Executor dispatcher) {
+        this.bufferSize = bufferSize;
+        this.maxSubscribers = maxSubscribers;
+        this.timeoutMillis = timeoutMillis;
+        this.replaySize = replaySize;
+        this.dispatcher = dispatcher;
+    }
+
+    private static ExecutorService newDispatcher(int threads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "user-feed-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+        if (dispatcher instanceof ExecutorService) {
+            ((ExecutorService) dispatcher).shutdown();
+        }
+    }
+
+    /**
+     * @param lastEventId the id of the last change the client received before it reconnected, or null
+     * @throws ResponseStatusException 503 if there are already max-subscribers subscribers
+     */
+    public SseEmitter subscribe(Long lastEventId) {
+        return register(new SseEmitter(timeoutMillis), lastEventId);
+    }
+
+    SseEmitter register(SseEmitter emitter, Long lastEventId) {
+        if (subscribers.size() >= maxSubscribers) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many subscribers of the user changes");
+        }
+        Subscriber subscriber = new Subscriber(emitter);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(error -> subscribers.remove(subscriber));
+        synchronized (recentChanges) {
+            if (lastEventId != null && lastEventId != sequence) {
+                Change oldest = recentChanges.peekFirst();
+                if (lastEventId > sequence || oldest == null || oldest.id > lastEventId + 1) {
+                    subscriber.resync();
+                }
+                else {
+                    recentChanges.stream().filter(change -> change.id > lastEventId).forEach(subscriber::offer);
+                }
+            }
+            subscribers.add(subscriber);
+        }
+        return emitter;
+    }
+
+    // after the commit of the change, directly for changes without transaction (status toggles)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserChange(UserChangeEvent event) {
+        UserChangeDTO payload = DTOMapper.INSTANCE.convertChangeEventToUserChangeDTO(event);
+        synchronized (recentChanges) {
+            Change change = new Change(++sequence, payload);
+            recentChanges.addLast(change);
+            if (recentChanges.size() > replaySize) {
+                recentChanges.removeFirst();
+            }
+            for (Subscriber subscriber : subscribers) {
+                subscriber.offer(change);
+            }
+        }
+    }
+
+    // keeps idle connections open through proxies and finds clients which are gone
+    @Scheduled(fixedDelayString = "${users.feed.heartbeat-ms:15000}")
+    public void heartbeat() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.enqueue(HEARTBEAT);
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    public long getResyncCount() {
+        return resyncs.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.feed.subscribers", this, UserChangeFeed::getSubscriberCount)
+                .description("Open GET /users/changes connections")
+                .register(registry);
+        FunctionCounter.builder("users.feed.resyncs", this, UserChangeFeed::getResyncCount)
+                .description("Subscribers which fell behind and had to reload the users")
+                .register(registry);
+    }
+
+    private static final class Change {
+
+        private final long id;
+        private final UserChangeDTO payload;
+
+        private Change(long id, UserChangeDTO payload) {
+            this.id = id;
+            this.payload = payload;
+        }
+    }
+
+    private final class Subscriber implements Runnable {
+
+        private final SseEmitter emitter;
+        private final ArrayBlockingQueue<Object> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        private void offer(Change change) {
+            if (!buffer.offer(change)) {
+                resync();
+            }
+            schedule();
+        }
+
+        // the buffered changes are useless once one is missing, the client reloads the users instead
+        private void resync() {
+            resyncs.increment();
+            buffer.clear();
+            buffer.offer(RESYNC);
+            schedule();
+        }
+
+        private void enqueue(Object marker) {
+            if (buffer.offer(marker)) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    dispatcher.execute(this);
+                }
+                catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        // drains the buffer, runs on the dispatcher and never twice at the same time for one subscriber
+        @Override
+        public void run() {
+            try {
+                Object next;
+                while ((next = buffer.poll()) != null) {
+                    send(next);
+                }
+            }
+            catch (IOException | IllegalStateException e) {
+                // the client is gone (or the emitter already completed), the container completes the request
+                subscribers.remove(this);
+                buffer.clear();
+            }
+            finally {
+                scheduled.set(false);
+            }
+            if (!buffer.isEmpty() && subscribers.contains(this)) {
+                schedule();
+            }
+        }
+
+        private void send(Object next) throws IOException {
+            if (next == RESYNC) {
+                emitter.send(SseEmitter.event().name("resync").data(""));
+            }
+            else if (next == HEARTBEAT) {
+                emitter.send(SseEmitter.event().comment("heartbeat"));
+            }
+            else {
+                Change change = (Change) next;
+                emitter.send(SseEmitter.event()
+                        .id(String.valueOf(change.id))
+                        .name(change.payload.getType())
+                        .data(change.payload, MediaType.APPLICATION_JSON));
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package ch.uzh.ifi.hase.soprafs22.monitoring;
+
+import ch.uzh.ifi.hase.soprafs22.security.AdaptiveConcurrencyLimit;
+import ch.uzh.ifi.hase.soprafs22.security.AdmissionControlFilter;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exposes the current concurrency limit of login and signup under /actuator/admission,
+ * used to tune the users.admission.* settings.
+ */
+@Component
+@Endpoint(id = "admission")
+public class AdmissionEndpoint {
+
+    private final AdaptiveConcurrencyLimit limit;
+
+    public AdmissionEndpoint(AdmissionControlFilter admissionControlFilter) {
+        this.limit = admissionControlFilter.getLimit();
+    }
+
+    @ReadOperation
+    public Map<String, Object> stats() {
+        long admitted = limit.getAdmitted();
+        long rejected = limit.getRejected();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("limit", limit.getLimit());
+        stats.put("inFlight", limit.getInFlight());
+        stats.put("baselineMillis", limit.getBaselineMillis());
+        stats.put("admitted", admitted);
+        stats.put("rejected", rejected);
+        stats.put("rejectionRate", admitted + rejected == 0 ? 0.0 : (double) rejected / (admitted + rejected));
+        return stats;
+    }
+}
@@ -0,0 +1,20 @@
+package ch.uzh.ifi.hase.soprafs22.monitoring;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Enables @Timed on the service methods (see UserService), the metrics are scraped from /actuator/prometheus.
+ * The request metrics of the UserController mappings (http.server.requests) and the connection pool metrics
+ * (hikaricp.connections.*) are recorded by Spring Boot.
+ */
+@Configuration
+public class MetricsConfiguration {
+
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+        return new TimedAspect(meterRegistry);
+    }
+}
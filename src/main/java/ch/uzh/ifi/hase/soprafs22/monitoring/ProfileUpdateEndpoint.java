@@ -0,0 +1,39 @@
+package ch.uzh.ifi.hase.soprafs22.monitoring;
+
+import ch.uzh.ifi.hase.soprafs22.service.ProfileUpdateBatcher;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exposes the batch sizes and commit times of the profile updates under /actuator/profileupdates,
+ * used to tune users.profile.group-commit.max-batch-size and max-delay-ms.
+ */
+@Component
+@Endpoint(id = "profileupdates")
+public class ProfileUpdateEndpoint {
+
+    private final ProfileUpdateBatcher profileUpdateBatcher;
+
+    public ProfileUpdateEndpoint(ProfileUpdateBatcher profileUpdateBatcher) {
+        this.profileUpdateBatcher = profileUpdateBatcher;
+    }
+
+    @ReadOperation
+    public Map<String, Object> stats() {
+        long batches = profileUpdateBatcher.getBatches();
+        long updates = profileUpdateBatcher.getUpdates();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("groupCommit", profileUpdateBatcher.isGroupCommit());
+        stats.put("transactions", batches);
+        stats.put("updates", updates);
+        stats.put("averageBatchSize", batches == 0 ? 0.0 : (double) updates / batches);
+        stats.put("largestBatch", profileUpdateBatcher.getLargestBatch());
+        stats.put("averageCommitMillis", batches == 0 ? 0.0 : profileUpdateBatcher.getCommitNanos() / 1e6 / batches);
+        stats.put("queued", profileUpdateBatcher.getQueued());
+        return stats;
+    }
+}
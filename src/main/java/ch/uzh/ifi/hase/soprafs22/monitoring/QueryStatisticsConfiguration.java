@@ -0,0 +1,62 @@
+package ch.uzh.ifi.hase.soprafs22.monitoring;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskDecorator;
+
+import javax.sql.DataSource;
+
+/**
+ * Query statistics mode (users.query-stats.enabled=true): the statements of every request are counted and timed
+ * (QueryStatisticsDataSource) and reported by the QueryStatisticsFilter, Hibernate collects its statistics
+ * (hibernate.generate_statistics). Meant for tests and for finding query overhead, not for production.
+ */
+@Configuration
+@ConditionalOnProperty(name = "users.query-stats.enabled", havingValue = "true")
+public class QueryStatisticsConfiguration {
+
+    // static, the post processor has to exist before the data source is created
+    // only the data source used by JPA is wrapped, not the pools behind a ReadWriteRoutingDataSource (counted twice otherwise)
+    @Bean
+    public static BeanPostProcessor queryStatisticsDataSourcePostProcessor(
+            @Value("${users.query-stats.slow-query-ms:100}") long slowQueryMillis) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource && "dataSource".equals(beanName) && !(bean instanceof QueryStatisticsDataSource)) {
+                    return new QueryStatisticsDataSource((DataSource) bean, slowQueryMillis);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Bean
+    public QueryStatisticsFilter queryStatisticsFilter(@Value("${users.query-stats.budget:10}") int budget,
+                                                       @Value("${users.query-stats.n-plus-one-threshold:5}") int nPlusOneThreshold) {
+        return new QueryStatisticsFilter(budget, nPlusOneThreshold);
+    }
+
+    // carries the RequestQueries of the submitting thread over to the task (applicationTaskExecutor, PasswordHasher)
+    @Bean
+    public TaskDecorator requestQueriesTaskDecorator() {
+        return runnable -> {
+            RequestQueries queries = RequestQueries.current();
+            if (queries == null) {
+                return runnable;
+            }
+            return () -> {
+                RequestQueries previous = RequestQueries.bind(queries);
+                try {
+                    runnable.run();
+                }
+                finally {
+                    RequestQueries.bind(previous);
+                }
+            };
+        };
+    }
+}
@@ -0,0 +1,96 @@
+package ch.uzh.ifi.hase.soprafs22.monitoring;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Data source which times every executed statement: the statement is recorded in the RequestQueries of the
+ * current request, and statements slower than the threshold are logged with the endpoint they ran for.
+ * The connections of the pool are wrapped, the pool itself (and its metrics) stays as it is.
+ */
+public class QueryStatisticsDataSource extends DelegatingDataSource {
+
+    private static final Logger log = LoggerFactory.getLogger(QueryStatisticsDataSource.class);
+
+    private final long slowQueryNanos;
+
+    public QueryStatisticsDataSource(DataSource targetDataSource, long slowQueryMillis) {
+        super(targetDataSource);
+        this.slowQueryNanos = slowQueryMillis * 1_000_000L;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrap(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return wrap(super.getConnection(username, password));
+    }
+
+    private Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(connection, method, args);
+                    if (result instanceof Statement) {
+                        // prepared statements carry their SQL, plain statements get it with execute(sql)
+                        String sql = result instanceof PreparedStatement ? (String) args[0] : null;
+                        return wrap((Statement) result, sql);
+                    }
+                    return result;
+                });
+    }
+
+    private Statement wrap(Statement statement, String preparedSql) {
+        Class<?> type = statement instanceof CallableStatement ? CallableStatement.class
+                : statement instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (!method.getName().startsWith("execute")) {
+                return invoke(statement, method, args);
+            }
+            long start = System.nanoTime();
+            try {
+                return invoke(statement, method, args);
+            }
+            finally {
+                String sql = preparedSql != null ? preparedSql
+                        : args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : "?";
+                record(sql, System.nanoTime() - start);
+            }
+        };
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    private void record(String sql, long elapsedNanos) {
+        RequestQueries queries = RequestQueries.current();
+        if (queries != null) {
+            queries.record(sql, elapsedNanos);
+        }
+        if (elapsedNanos >= slowQueryNanos) {
+            log.warn("Slow query ({} ms) in {}: {}", elapsedNanos / 1_000_000,
+                    queries != null ? queries.getEndpoint() : "no request", sql);
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        }
+        catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+}
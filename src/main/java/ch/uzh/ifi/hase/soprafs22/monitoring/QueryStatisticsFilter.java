@@ -0,0 +1,126 @@
+package ch.uzh.ifi.hase.soprafs22.monitoring;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Query Statistics Filter
+ * Collects the SQL statements of every request (RequestQueries) and
+ * - returns their number in the X-Query-Count response header (set before the body is written)
+ * - logs requests with more statements than the budget
+ * - logs statements executed repeatedly in one request (possible N+1)
+ * Asynchronous requests are reported once their last dispatch is done.
+ */
+public class QueryStatisticsFilter extends OncePerRequestFilter {
+
+    public static final String QUERY_COUNT_HEADER = "X-Query-Count";
+
+    private static final String QUERIES_ATTRIBUTE = RequestQueries.class.getName();
+
+    private final Logger log = LoggerFactory.getLogger(QueryStatisticsFilter.class);
+    private final int budget;
+    private final int nPlusOneThreshold;
+
+    public QueryStatisticsFilter(int budget, int nPlusOneThreshold) {
+        this.budget = budget;
+        this.nPlusOneThreshold = nPlusOneThreshold;
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        RequestQueries queries = (RequestQueries) request.getAttribute(QUERIES_ATTRIBUTE);
+        if (queries == null) {
+            // first dispatch, an async dispatch gets the wrapped response of the first one
+            queries = new RequestQueries(request);
+            request.setAttribute(QUERIES_ATTRIBUTE, queries);
+            response = new QueryCountResponse(response, queries);
+        }
+        RequestQueries previous = RequestQueries.bind(queries);
+        try {
+            filterChain.doFilter(request, response);
+        }
+        finally {
+            RequestQueries.bind(previous);
+            if (!request.isAsyncStarted()) {
+                if (!response.isCommitted()) {
+                    response.setHeader(QUERY_COUNT_HEADER, String.valueOf(queries.getCount()));
+                }
+                report(queries);
+            }
+        }
+    }
+
+    private void report(RequestQueries queries) {
+        String endpoint = queries.getEndpoint();
+        if (queries.getCount() > budget) {
+            log.warn("{} executed {} queries ({} ms), the budget is {}",
+                    endpoint, queries.getCount(), queries.getMillis(), budget);
+        }
+        queries.getRepeatedStatements(nPlusOneThreshold).forEach((sql, executions) ->
+                log.warn("Possible N+1 in {}: {} executed {} times", endpoint, sql, executions));
+        log.debug("{} executed {} queries ({} ms)", endpoint, queries.getCount(), queries.getMillis());
+    }
+
+    // sets the query count header right before the response is committed
+    private static class QueryCountResponse extends HttpServletResponseWrapper {
+
+        private final RequestQueries queries;
+
+        QueryCountResponse(HttpServletResponse response, RequestQueries queries) {
+            super(response);
+            this.queries = queries;
+        }
+
+        private void setQueryCount() {
+            if (!isCommitted()) {
+                setHeader(QUERY_COUNT_HEADER, String.valueOf(queries.getCount()));
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            setQueryCount();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            setQueryCount();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            setQueryCount();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            setQueryCount();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            setQueryCount();
+            super.sendError(sc);
+        }
+    }
+}
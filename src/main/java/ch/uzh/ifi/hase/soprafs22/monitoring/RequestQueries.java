@@ -0,0 +1,80 @@
+package ch.uzh.ifi.hase.soprafs22.monitoring;
+
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The SQL statements executed for one HTTP request (see QueryStatisticsFilter).
+ * It is bound to the thread working on the request, and carried over to the threads of asynchronous requests
+ * (password hashing, applicationTaskExecutor) by the TaskDecorator of QueryStatisticsConfiguration.
+ */
+public class RequestQueries {
+
+    private static final ThreadLocal<RequestQueries> CURRENT = new ThreadLocal<>();
+
+    private final HttpServletRequest request;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final Map<String, LongAdder> statements = new ConcurrentHashMap<>();
+
+    public RequestQueries(HttpServletRequest request) {
+        this.request = request;
+    }
+
+    // the queries of the request the current thread works on, null outside of a request
+    public static RequestQueries current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Binds the queries (or null) to the current thread.
+     *
+     * @return the previously bound queries, to be restored afterwards
+     */
+    public static RequestQueries bind(RequestQueries queries) {
+        RequestQueries previous = CURRENT.get();
+        if (queries == null) {
+            CURRENT.remove();
+        }
+        else {
+            CURRENT.set(queries);
+        }
+        return previous;
+    }
+
+    public void record(String sql, long elapsedNanos) {
+        count.increment();
+        nanos.add(elapsedNanos);
+        statements.computeIfAbsent(sql, key -> new LongAdder()).increment();
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMillis() {
+        return nanos.sum() / 1e6;
+    }
+
+    // the statements executed at least threshold times (the typical N+1 pattern), with their count
+    public Map<String, Long> getRepeatedStatements(int threshold) {
+        Map<String, Long> repeated = new TreeMap<>();
+        statements.forEach((sql, executions) -> {
+            if (executions.sum() >= threshold) {
+                repeated.put(sql, executions.sum());
+            }
+        });
+        return repeated;
+    }
+
+    // method and mapping of the request, e.g. "GET /users/{id}" (the path before the handler is known)
+    public String getEndpoint() {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        return request.getMethod() + " " + (pattern != null ? pattern : request.getRequestURI());
+    }
+}
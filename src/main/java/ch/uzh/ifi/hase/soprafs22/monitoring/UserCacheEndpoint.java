@@ -0,0 +1,45 @@
+package ch.uzh.ifi.hase.soprafs22.monitoring;
+
+import ch.uzh.ifi.hase.soprafs22.service.UserCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exposes the hit/miss/eviction counters of the UserCache under /actuator/usercache,
+ * used to size users.cache.maximum-size and users.cache.ttl-seconds.
+ */
+@Component
+@Endpoint(id = "usercache")
+public class UserCacheEndpoint {
+
+    private final UserCache userCache;
+
+    public UserCacheEndpoint(UserCache userCache) {
+        this.userCache = userCache;
+    }
+
+    @ReadOperation
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("byId", describe(userCache.getByIdStats(), userCache.getByIdSize()));
+        stats.put("byUsername", describe(userCache.getByUsernameStats(), userCache.getByUsernameSize()));
+        stats.put("summaryById", describe(userCache.getSummaryByIdStats(), userCache.getSummaryByIdSize()));
+        stats.put("summaryByUsername", describe(userCache.getSummaryByUsernameStats(), userCache.getSummaryByUsernameSize()));
+        return stats;
+    }
+
+    private static Map<String, Object> describe(CacheStats cacheStats, long size) {
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("size", size);
+        description.put("hits", cacheStats.hitCount());
+        description.put("misses", cacheStats.missCount());
+        description.put("hitRate", cacheStats.hitRate());
+        description.put("evictions", cacheStats.evictionCount());
+        return description;
+    }
+}
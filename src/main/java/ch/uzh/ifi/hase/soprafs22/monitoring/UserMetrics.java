@@ -0,0 +1,85 @@
+package ch.uzh.ifi.hase.soprafs22.monitoring;
+
+import ch.uzh.ifi.hase.soprafs22.security.AdaptiveConcurrencyLimit;
+import ch.uzh.ifi.hase.soprafs22.security.AdmissionControlFilter;
+import ch.uzh.ifi.hase.soprafs22.service.PasswordHasher;
+import ch.uzh.ifi.hase.soprafs22.service.PresenceRegistry;
+import ch.uzh.ifi.hase.soprafs22.service.ProfileUpdateBatcher;
+import ch.uzh.ifi.hase.soprafs22.service.UserCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+/**
+ * The saturation of the in-memory components as metrics: the login admission limit, the queues in front of the
+ * password hashing and profile update workers, the pending status changes and the hits of the user cache.
+ * All of them are read from existing counters when the registry is scraped, nothing is recorded per request.
+ */
+@Component
+public class UserMetrics implements MeterBinder {
+
+    private final AdaptiveConcurrencyLimit admissionLimit;
+    private final PasswordHasher passwordHasher;
+    private final ProfileUpdateBatcher profileUpdateBatcher;
+    private final PresenceRegistry presenceRegistry;
+    private final UserCache userCache;
+
+    public UserMetrics(AdmissionControlFilter admissionControlFilter, PasswordHasher passwordHasher,
+                       ProfileUpdateBatcher profileUpdateBatcher, PresenceRegistry presenceRegistry,
+                       UserCache userCache) {
+        this.admissionLimit = admissionControlFilter.getLimit();
+        this.passwordHasher = passwordHasher;
+        this.profileUpdateBatcher = profileUpdateBatcher;
+        this.presenceRegistry = presenceRegistry;
+        this.userCache = userCache;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.admission.limit", admissionLimit, AdaptiveConcurrencyLimit::getLimit)
+                .description("Concurrency limit of login and signup")
+                .register(registry);
+        Gauge.builder("users.admission.in.flight", admissionLimit, AdaptiveConcurrencyLimit::getInFlight)
+                .register(registry);
+        FunctionCounter.builder("users.admission.rejected", admissionLimit, AdaptiveConcurrencyLimit::getRejected)
+                .description("Logins and signups rejected with 503")
+                .register(registry);
+
+        Gauge.builder("users.password.queued", passwordHasher, PasswordHasher::getQueued)
+                .description("Password hashes waiting for a hashing thread")
+                .register(registry);
+        Gauge.builder("users.profile.queued", profileUpdateBatcher, ProfileUpdateBatcher::getQueued)
+                .description("Profile updates waiting for the group commit")
+                .register(registry);
+        Gauge.builder("users.presence.pending", presenceRegistry, PresenceRegistry::getPendingChanges)
+                .description("Status changes not yet written to the database")
+                .register(registry);
+
+        FunctionCounter.builder("users.cache.requests", userCache, cache -> cache.getByIdStats().hitCount())
+                .tags("cache", "byId", "result", "hit")
+                .register(registry);
+        FunctionCounter.builder("users.cache.requests", userCache, cache -> cache.getByIdStats().missCount())
+                .tags("cache", "byId", "result", "miss")
+                .register(registry);
+        FunctionCounter.builder("users.cache.requests", userCache, cache -> cache.getByUsernameStats().hitCount())
+                .tags("cache", "byUsername", "result", "hit")
+                .register(registry);
+        FunctionCounter.builder("users.cache.requests", userCache, cache -> cache.getByUsernameStats().missCount())
+                .tags("cache", "byUsername", "result", "miss")
+                .register(registry);
+        FunctionCounter.builder("users.cache.requests", userCache, cache -> cache.getSummaryByIdStats().hitCount())
+                .tags("cache", "summaryById", "result", "hit")
+                .register(registry);
+        FunctionCounter.builder("users.cache.requests", userCache, cache -> cache.getSummaryByIdStats().missCount())
+                .tags("cache", "summaryById", "result", "miss")
+                .register(registry);
+        FunctionCounter.builder("users.cache.requests", userCache, cache -> cache.getSummaryByUsernameStats().hitCount())
+                .tags("cache", "summaryByUsername", "result", "hit")
+                .register(registry);
+        FunctionCounter.builder("users.cache.requests", userCache, cache -> cache.getSummaryByUsernameStats().missCount())
+                .tags("cache", "summaryByUsername", "result", "miss")
+                .register(registry);
+    }
+}
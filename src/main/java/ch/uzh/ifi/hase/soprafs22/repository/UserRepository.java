@@ -1,14 +1,87 @@
 package ch.uzh.ifi.hase.soprafs22.repository;
 
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 @Repository("userRepository")
 public interface UserRepository extends JpaRepository<User, Long> {
 
+    // the lookups of login, token authentication and the existence checks always read from the primary
+    // (not read-only, see ReadWriteRoutingDataSource), also when they are called outside of a service transaction:
+    // a lagging read replica would not know a user who just signed up
+    @Transactional
     User findByUsername(String username);
+    @Transactional
     User findById(long id);
     Boolean existsUserByUsername(String username);
+    @Transactional
+    User findByToken(String token);
     //Boolean existsById(long id);
+
+    // keyset page: all users with an id after the cursor, the pageable only carries the size (never an offset)
+    @Query("select new ch.uzh.ifi.hase.soprafs22.repository.UserSummary(u.id, u.username, u.status, u.creationDate, u.birthday, u.version)"
+            + " from User u where u.id > :id order by u.id")
+    Slice<UserSummary> findSummariesByIdGreaterThan(@Param("id") long id, Pageable pageable);
+
+    // read-only: from the read replica if there is one
+    @Transactional(readOnly = true)
+    @Query("select new ch.uzh.ifi.hase.soprafs22.repository.UserSummary(u.id, u.username, u.status, u.creationDate, u.birthday, u.version)"
+            + " from User u where u.id = :id")
+    UserSummary findSummaryById(@Param("id") long id);
+
+    @Transactional(readOnly = true)
+    @Query("select new ch.uzh.ifi.hase.soprafs22.repository.UserSummary(u.id, u.username, u.status, u.creationDate, u.birthday, u.version)"
+            + " from User u where u.username = :username")
+    UserSummary findSummaryByUsername(@Param("username") String username);
+
+    // the same lookups on the primary, for users the replica does not have (yet)
+    @Transactional
+    @Query("select new ch.uzh.ifi.hase.soprafs22.repository.UserSummary(u.id, u.username, u.status, u.creationDate, u.birthday, u.version)"
+            + " from User u where u.id = :id")
+    UserSummary findSummaryByIdOnPrimary(@Param("id") long id);
+
+    @Transactional
+    @Query("select new ch.uzh.ifi.hase.soprafs22.repository.UserSummary(u.id, u.username, u.status, u.creationDate, u.birthday, u.version)"
+            + " from User u where u.username = :username")
+    UserSummary findSummaryByUsernameOnPrimary(@Param("username") String username);
+
+    // cursor over the whole table for exports, must be consumed (and closed) inside a transaction
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    @Query("select new ch.uzh.ifi.hase.soprafs22.repository.UserSummary(u.id, u.username, u.status, u.creationDate, u.birthday, u.version)"
+            + " from User u order by u.id")
+    Stream<UserSummary> streamAllSummaries();
+
+    // the subset of the given usernames which is already taken, one query for a whole bulk creation
+    @Query("select u.username from User u where u.username in :usernames")
+    List<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
+
+    // write-behind of the online status, one statement for all users with the same new status
+    @Modifying
+    @Query("update User u set u.status = :status where u.id in :ids")
+    int updateStatus(@Param("status") Boolean status, @Param("ids") Collection<Long> ids);
+
+    // all usernames, used to build the in-memory username indexes at startup
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query("select u.username from User u")
+    Stream<String> streamAllUsernames();
+
+    // change marker of the whole table (see UserTableState), one aggregate query
+    @Query("select new ch.uzh.ifi.hase.soprafs22.repository.UserTableState(count(u), max(u.id), sum(u.version), sum(length(u.username)))"
+            + " from User u")
+    UserTableState getTableState();
 }
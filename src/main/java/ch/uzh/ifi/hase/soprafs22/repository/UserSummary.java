@@ -0,0 +1,64 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+
+import java.time.LocalDate;
+
+/**
+ * User Summary
+ * Read-only projection of a user with the columns the API exposes (no password, no token).
+ * The UserRepository selects it directly (constructor expression), no User entity is loaded into the persistence context.
+ * Immutable, so cached summaries can be shared between requests.
+ */
+public final class UserSummary {
+
+    private final Long id;
+    private final String username;
+    private final Boolean status;
+    private final LocalDate creationDate;
+    private final LocalDate birthday;
+    private final Long version;
+
+    public UserSummary(Long id, String username, Boolean status, LocalDate creationDate, LocalDate birthday, Long version) {
+        this.id = id;
+        this.username = username;
+        this.status = status;
+        this.creationDate = creationDate;
+        this.birthday = birthday;
+        this.version = version;
+    }
+
+    public static UserSummary of(User user) {
+        return new UserSummary(user.getId(), user.getUsername(), user.getStatus(), user.getCreationDate(),
+                user.getBirthday(), user.getVersion());
+    }
+
+    // copy with another online status (the status of the PresenceRegistry)
+    public UserSummary withStatus(Boolean status) {
+        return new UserSummary(id, username, status, creationDate, birthday, version);
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public Boolean getStatus() {
+        return status;
+    }
+
+    public LocalDate getCreationDate() {
+        return creationDate;
+    }
+
+    public LocalDate getBirthday() {
+        return birthday;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,66 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+
+import java.util.Objects;
+
+/**
+ * User Table State
+ * Aggregates over the user table, read with one query (UserRepository.getTableState), used as change marker of the table.
+ * Every change made through the application changes it: ids are never reused, so an insert raises the max id
+ * (also after a delete), and every update of a user entity increments its @Version (the sum of the versions).
+ * The sum of the username lengths also catches most renames made directly with SQL, which bypass the version.
+ * Missing aggregates (empty table) are 0.
+ */
+public final class UserTableState {
+
+    private final long count;
+    private final long maxId;
+    private final long versionSum;
+    private final long usernameLengthSum;
+
+    public UserTableState(Long count, Long maxId, Long versionSum, Long usernameLengthSum) {
+        this.count = count == null ? 0 : count;
+        this.maxId = maxId == null ? 0 : maxId;
+        this.versionSum = versionSum == null ? 0 : versionSum;
+        this.usernameLengthSum = usernameLengthSum == null ? 0 : usernameLengthSum;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMaxId() {
+        return maxId;
+    }
+
+    public long getVersionSum() {
+        return versionSum;
+    }
+
+    public long getUsernameLengthSum() {
+        return usernameLengthSum;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof UserTableState)) {
+            return false;
+        }
+        UserTableState other = (UserTableState) o;
+        return count == other.count && maxId == other.maxId && versionSum == other.versionSum
+                && usernameLengthSum == other.usernameLengthSum;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(count, maxId, versionSum, usernameLengthSum);
+    }
+
+    @Override
+    public String toString() {
+        return "count " + count + ", max id " + maxId + ", version sum " + versionSum
+                + ", username length sum " + usernameLengthSum;
+    }
+}
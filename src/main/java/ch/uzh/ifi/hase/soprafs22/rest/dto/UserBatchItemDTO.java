@@ -0,0 +1,44 @@
+package ch.uzh.ifi.hase.soprafs22.rest.dto;
+
+public class UserBatchItemDTO {
+
+    private int index;
+
+    private int status;
+
+    private UserGetDTO user;
+
+    private String error;
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public UserGetDTO getUser() {
+        return user;
+    }
+
+    public void setUser(UserGetDTO user) {
+        this.user = user;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -5,6 +5,8 @@ import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import java.time.LocalDate;
 import java.util.Date;
 
+// the read representation of a user, it never carries a token: signup and login send the caller's own token
+// in the X-Auth-Token header (TokenAuthenticationFilter.TOKEN_HEADER)
 public class UserGetDTO {
 
     private Long id;
@@ -13,7 +15,6 @@ public class UserGetDTO {
     private Boolean status;
     private LocalDate creationDate;
     private LocalDate birthday;
-    private String token;
 
 
     public LocalDate getBirthday() { return birthday; }
@@ -60,12 +61,4 @@ public class UserGetDTO {
         public void setStatus(Boolean status) {
             this.status = status;
         }
-    /*
-        public String getToken() {
-            return token;
-        }
-    **/
-    public void setToken(String token) {
-        this.token = token;
-    }
 }
\ No newline at end of file
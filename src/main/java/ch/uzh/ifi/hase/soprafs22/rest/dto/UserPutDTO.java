@@ -1,5 +1,7 @@
 package ch.uzh.ifi.hase.soprafs22.rest.dto;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+
 import java.time.LocalDate;
 import java.util.Date;
 
@@ -9,6 +11,17 @@ public class UserPutDTO {
 
     private LocalDate birthday;
 
+    public UserPutDTO() {
+    }
+
+    // PUT /users/{id}/username sends the new username as a bare string ("name" in JSON), in any of the formats
+    @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+    public static UserPutDTO ofUsername(String username) {
+        UserPutDTO userPutDTO = new UserPutDTO();
+        userPutDTO.setUsername(username);
+        return userPutDTO;
+    }
+
     public void setUsername(String username) {
         this.username = username;
     }
@@ -1,8 +1,11 @@
 package ch.uzh.ifi.hase.soprafs22.rest.mapper;
 
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserChangeDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs22.service.UserChangeEvent;
 import org.mapstruct.*;
 import org.mapstruct.factory.Mappers;
 
@@ -31,6 +34,13 @@ public interface DTOMapper {
     @Mapping(source = "username", target = "username")
     @Mapping(source = "status", target = "status")
     @Mapping(source = "creationDate", target = "creationDate")
-    @Mapping(source = "token", target = "token")
     UserGetDTO convertEntityToUserGetDTO(User user);
+
+    // the projections of the read endpoints carry no password
+    @Mapping(target = "password", ignore = true)
+    UserGetDTO convertSummaryToUserGetDTO(UserSummary userSummary);
+
+    // the type is sent in lower case (also the SSE event name)
+    @Mapping(target = "type", expression = "java(event.getType().name().toLowerCase(java.util.Locale.ROOT))")
+    UserChangeDTO convertChangeEventToUserChangeDTO(UserChangeEvent event);
 }
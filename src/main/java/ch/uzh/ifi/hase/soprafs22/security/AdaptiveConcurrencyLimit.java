@@ -0,0 +1,143 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Adaptive Concurrency Limit
+ * AIMD limit on the number of requests in flight, driven by their latency:
+ * - a request completes within tolerance x the baseline latency (the fastest request of the last window)
+ *   while the limit is in use -> the limit grows by 1/limit (about +1 per limit requests)
+ * - a request is slower than that or than max-latency, or was dropped (503) -> the limit is multiplied by backoff,
+ *   at most once per round trip (only requests admitted after the last decrease count)
+ */
+public class AdaptiveConcurrencyLimit {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final long maxLatencyNanos;
+    private final double backoff;
+    private final int baselineWindow;
+    private final LongSupplier clock;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private volatile int currentLimit;
+
+    // guarded by this
+    private double limit;
+    private long baselineNanos;
+    private long windowMinNanos = Long.MAX_VALUE;
+    private int windowSamples;
+    private long lastDecreaseNanos = Long.MIN_VALUE;
+
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double tolerance,
+                                    long maxLatencyMillis, double backoff, int baselineWindow) {
+        this(initialLimit, minLimit, maxLimit, tolerance, maxLatencyMillis, backoff, baselineWindow, System::nanoTime);
+    }
+
+    AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double tolerance,
+                             long maxLatencyMillis, double backoff, int baselineWindow, LongSupplier clock) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis);
+        this.backoff = backoff;
+        this.baselineWindow = baselineWindow;
+        this.clock = clock;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.currentLimit = (int) this.limit;
+    }
+
+    // a permit for one request, null when the limit is reached
+    public Permit tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= currentLimit) {
+                rejected.increment();
+                return null;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        admitted.increment();
+        return new Permit(clock.getAsLong());
+    }
+
+    private void release(long startNanos, boolean dropped) {
+        long now = clock.getAsLong();
+        long latency = now - startNanos;
+        int inFlightBefore = inFlight.getAndDecrement();
+        synchronized (this) {
+            if (!dropped) {
+                if (baselineNanos == 0 || latency < baselineNanos) {
+                    baselineNanos = latency;
+                }
+                // the baseline is renewed every window, so it follows a permanently slower (or faster) system
+                windowMinNanos = Math.min(windowMinNanos, latency);
+                if (++windowSamples >= baselineWindow) {
+                    baselineNanos = windowMinNanos;
+                    windowMinNanos = Long.MAX_VALUE;
+                    windowSamples = 0;
+                }
+            }
+            boolean overloaded = dropped || latency > maxLatencyNanos || latency > baselineNanos * tolerance;
+            if (overloaded) {
+                if (startNanos > lastDecreaseNanos) {
+                    limit = Math.max(minLimit, limit * backoff);
+                    lastDecreaseNanos = now;
+                }
+            }
+            else if (inFlightBefore * 2 >= limit) {
+                // only grow while the limit is actually used
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            currentLimit = (int) limit;
+        }
+    }
+
+    public int getLimit() {
+        return currentLimit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public synchronized double getBaselineMillis() {
+        return baselineNanos / 1e6;
+    }
+
+    /**
+     * One admitted request, has to be released exactly once when the request is complete
+     * (further calls are ignored, e.g. onTimeout followed by onComplete).
+     */
+    public final class Permit {
+
+        private final long startNanos;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        // dropped = the request was rejected further down (e.g. 503 of the PasswordHasher) or timed out
+        public void release(boolean dropped) {
+            if (released.compareAndSet(false, true)) {
+                AdaptiveConcurrencyLimit.this.release(startNanos, dropped);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Admission Control Filter
+ * Login and signup (PUT /users_name/{username}, POST /users, POST /users/batch) only run while the
+ * AdaptiveConcurrencyLimit admits them. Once it is reached they are rejected right away with 503 Service Unavailable
+ * and a Retry-After header, instead of piling up on the Tomcat threads and slowing down every other endpoint.
+ * All other requests are not limited.
+ * The permit is held until the response is complete, also for the asynchronous requests (password hashing).
+ */
+@Component
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    private final AdaptiveConcurrencyLimit limit;
+    private final String retryAfterSeconds;
+
+    public AdmissionControlFilter(@Value("${users.admission.initial-limit:20}") int initialLimit,
+                                  @Value("${users.admission.min-limit:2}") int minLimit,
+                                  @Value("${users.admission.max-limit:200}") int maxLimit,
+                                  @Value("${users.admission.latency-tolerance:2.0}") double tolerance,
+                                  @Value("${users.admission.max-latency-ms:2000}") long maxLatencyMillis,
+                                  @Value("${users.admission.backoff:0.9}") double backoff,
+                                  @Value("${users.admission.baseline-window:500}") int baselineWindow,
+                                  @Value("${users.admission.retry-after-seconds:1}") int retryAfterSeconds) {
+        this.limit = new AdaptiveConcurrencyLimit(initialLimit, minLimit, maxLimit, tolerance, maxLatencyMillis,
+                backoff, baselineWindow);
+        this.retryAfterSeconds = String.valueOf(retryAfterSeconds);
+    }
+
+    public AdaptiveConcurrencyLimit getLimit() {
+        return limit;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (HttpMethod.POST.matches(request.getMethod())) {
+            return !path.equals("/users") && !path.equals("/users/batch");
+        }
+        if (HttpMethod.PUT.matches(request.getMethod())) {
+            return !path.startsWith("/users_name/");
+        }
+        return true;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        AdaptiveConcurrencyLimit.Permit permit = limit.tryAcquire();
+        if (permit == null) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, retryAfterSeconds);
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many logins, please retry");
+            return;
+        }
+        try {
+            filterChain.doFilter(request, response);
+        }
+        finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new PermitReleasingListener(permit));
+            }
+            else {
+                permit.release(response.getStatus() == HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            }
+        }
+    }
+
+    // releases the permit of an asynchronous request once its response is complete
+    private static class PermitReleasingListener implements AsyncListener {
+
+        private final AdaptiveConcurrencyLimit.Permit permit;
+
+        PermitReleasingListener(AdaptiveConcurrencyLimit.Permit permit) {
+            this.permit = permit;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            HttpServletResponse response = (HttpServletResponse) event.getSuppliedResponse();
+            permit.release(response.getStatus() == HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            permit.release(true);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            permit.release(true);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // the listener is registered once, after the request went asynchronous
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Token Authentication Filter
+ * Authenticates requests which carry an "Authorization: Bearer <token>" header (the token is handed out on signup
+ * and login in the X-Auth-Token response header). The token is resolved through the in-memory TokenIndex,
+ * so an authenticated request costs a hash lookup and no credential check.
+ * - valid token -> the user id is stored in the request attribute AUTHENTICATED_USER_ID
+ * - unknown token -> 401 Unauthorized
+ * - no token -> the request passes unauthenticated
+ */
+@Component
+public class TokenAuthenticationFilter extends OncePerRequestFilter {
+
+    public static final String AUTHENTICATED_USER_ID = "authenticatedUserId";
+    public static final String TOKEN_HEADER = "X-Auth-Token";
+
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private final UserService userService;
+
+    public TokenAuthenticationFilter(UserService userService) {
+        this.userService = userService;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (authorization != null && authorization.startsWith(BEARER_PREFIX)) {
+            Long userId = userService.getUserIdByToken(authorization.substring(BEARER_PREFIX.length()).trim());
+            if (userId == null) {
+                response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Invalid token");
+                return;
+            }
+            request.setAttribute(AUTHENTICATED_USER_ID, userId);
+        }
+        filterChain.doFilter(request, response);
+    }
+}
@@ -0,0 +1,142 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Password Hasher
+ * BCrypt hashing and verification of passwords on a dedicated, bounded thread pool (one thread per core by default),
+ * so the CPU heavy work never runs on the request threads. The cost (log2 of the BCrypt rounds) is tunable,
+ * every +1 doubles the time per hash.
+ * The returned futures complete on the completion executor, the work chained onto them
+ * (e.g. inserting the user) does not block the hashing threads.
+ * When the pool and its queue are full, new work is rejected with 503.
+ */
+@Component
+public class PasswordHasher {
+
+    private static final Pattern BCRYPT_PATTERN = Pattern.compile("^\\$2[aby]?\\$\\d\\d\\$[./0-9A-Za-z]{53}$");
+
+    private final BCryptPasswordEncoder encoder;
+    private final ThreadPoolExecutor hashingPool;
+    private final Executor completionExecutor;
+    private final TaskDecorator taskDecorator;
+
+    @Autowired
+    public PasswordHasher(@Value("${users.password.bcrypt-cost:10}") int cost,
+                          @Value("${users.password.hashing-threads:0}") int threads,
+                          @Value("${users.password.queue-capacity:256}") int queueCapacity,
+                          @Qualifier("applicationTaskExecutor") Executor completionExecutor,
+                          ObjectProvider<TaskDecorator> taskDecorators) {
+        this(cost, threads, queueCapacity, completionExecutor, taskDecorators.getIfUnique(() -> runnable -> runnable));
+    }
+
+    public PasswordHasher(int cost, int threads, int queueCapacity, Executor completionExecutor) {
+        this(cost, threads, queueCapacity, completionExecutor, runnable -> runnable);
+    }
+
+    // the task decorator carries the context of the caller (e.g. the RequestQueries) over to the hashing threads
+    private PasswordHasher(int cost, int threads, int queueCapacity, Executor completionExecutor,
+                           TaskDecorator taskDecorator) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.encoder = new BCryptPasswordEncoder(cost);
+        this.hashingPool = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hashing-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.completionExecutor = completionExecutor;
+        this.taskDecorator = taskDecorator;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        hashingPool.shutdown();
+    }
+
+    // the BCrypt hash of the password, null and blank passwords stay as they are (signup rejects them)
+    public CompletableFuture<String> hash(String rawPassword) {
+        if (rawPassword == null || rawPassword.isBlank()) {
+            return CompletableFuture.completedFuture(rawPassword);
+        }
+        return submit(rawPassword, encoder::encode);
+    }
+
+    /**
+     * Hashes many passwords (bulk signup) without flooding the queue: the passwords are split into one chunk
+     * per hashing thread and every chunk is hashed by a single task.
+     *
+     * @return the hashes in the order of the passwords, null and blank passwords stay as they are
+     */
+    public CompletableFuture<List<String>> hashAll(List<String> rawPasswords) {
+        int chunkSize = Math.max(1, (rawPasswords.size() + getPoolSize() - 1) / getPoolSize());
+        List<CompletableFuture<List<String>>> chunks = new ArrayList<>();
+        for (int from = 0; from < rawPasswords.size(); from += chunkSize) {
+            List<String> chunk = rawPasswords.subList(from, Math.min(from + chunkSize, rawPasswords.size()));
+            chunks.add(submit(chunk, passwords -> {
+                List<String> hashes = new ArrayList<>(passwords.size());
+                for (String password : passwords) {
+                    hashes.add(password == null || password.isBlank() ? password : encoder.encode(password));
+                }
+                return hashes;
+            }));
+        }
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0])).thenApply(done -> {
+            List<String> hashes = new ArrayList<>(rawPasswords.size());
+            chunks.forEach(chunk -> hashes.addAll(chunk.join()));
+            return hashes;
+        });
+    }
+
+    /**
+     * Checks the password against the stored BCrypt hash.
+     * A stored value which is no BCrypt hash never matches (all passwords are hashed on signup).
+     */
+    public CompletableFuture<Boolean> matches(String rawPassword, String storedPassword) {
+        if (rawPassword == null || storedPassword == null || !BCRYPT_PATTERN.matcher(storedPassword).matches()) {
+            return CompletableFuture.completedFuture(Boolean.FALSE);
+        }
+        return submit(rawPassword, raw -> encoder.matches(raw, storedPassword));
+    }
+
+    public int getPoolSize() {
+        return hashingPool.getMaximumPoolSize();
+    }
+
+    public int getQueued() {
+        return hashingPool.getQueue().size();
+    }
+
+    private <I, T> CompletableFuture<T> submit(I input, Function<I, T> work) {
+        try {
+            return CompletableFuture.supplyAsync(() -> work.apply(input),
+                            runnable -> hashingPool.execute(taskDecorator.decorate(runnable)))
+                    .thenApplyAsync(Function.identity(), completionExecutor);
+        }
+        catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many concurrent logins, please retry");
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Presence Registry
+ * In-memory online status of the users, the source of truth for the status while the application runs.
+ * Toggles are atomic per user and never touch the database, changed users are remembered as dirty
+ * and written to the status column in batches (see UserService.flushPresence).
+ * Users which were not toggled since startup are not tracked, their status is the one in the database.
+ */
+@Component
+public class PresenceRegistry {
+
+    private final ConcurrentHashMap<Long, Boolean> statuses = new ConcurrentHashMap<>();
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+
+    // the current status, or null if the user is not tracked (-> the database is up to date)
+    public Boolean getStatus(long id) {
+        return statuses.get(id);
+    }
+
+    /**
+     * Atomically flips the status of the user.
+     *
+     * @param id the id of the user
+     * @param initialStatus the status to flip if the user is not tracked yet (the one from the database)
+     * @return the new status
+     */
+    public boolean toggle(long id, Boolean initialStatus) {
+        boolean status = statuses.compute(id, (key, current) -> !Boolean.TRUE.equals(current == null ? initialStatus : current));
+        dirty.add(id);
+        return status;
+    }
+
+    public void setStatus(long id, boolean status) {
+        statuses.put(id, status);
+        dirty.add(id);
+    }
+
+    /**
+     * Removes and returns the users changed since the last call, with their current status.
+     * A user toggled while draining stays (or becomes) dirty again and is part of the next drain.
+     */
+    public Map<Long, Boolean> drainChanges() {
+        Map<Long, Boolean> changes = new HashMap<>();
+        for (Iterator<Long> iterator = dirty.iterator(); iterator.hasNext(); ) {
+            Long id = iterator.next();
+            iterator.remove();
+            changes.put(id, statuses.get(id));
+        }
+        return changes;
+    }
+
+    // puts the users back into the dirty set, used when writing a drained batch failed
+    public void markDirty(Collection<Long> ids) {
+        dirty.addAll(ids);
+    }
+
+    public int getPendingChanges() {
+        return dirty.size();
+    }
+}
@@ -0,0 +1,251 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Profile Update Batcher
+ * Runs profile mutations (username, birthday) in database transactions.
+ * - group commit disabled (default): every update runs in its own transaction in the calling thread
+ * - group commit enabled: updates are queued and a single worker applies them together in one transaction,
+ *   as soon as max-batch-size updates are waiting or max-delay-ms after the first one arrived.
+ *   The caller is blocked until the transaction of its batch has committed, at most timeout-ms (then 503).
+ *   If the batch fails, its updates are retried one by one so a single bad update only fails its own caller.
+ *   Once the batcher is stopped, updates run in the calling thread again.
+ */
+@Component
+public class ProfileUpdateBatcher {
+
+    private final Logger log = LoggerFactory.getLogger(ProfileUpdateBatcher.class);
+
+    private final TransactionTemplate transactionTemplate;
+    private final boolean groupCommit;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final long timeoutMillis;
+    private final BlockingQueue<PendingUpdate> queue;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder commitNanos = new LongAdder();
+    private final AtomicLong largestBatch = new AtomicLong();
+
+    private ExecutorService worker;
+    private volatile boolean running;
+
+    public ProfileUpdateBatcher(PlatformTransactionManager transactionManager,
+                                @Value("${users.profile.group-commit.enabled:false}") boolean groupCommit,
+                                @Value("${users.profile.group-commit.max-batch-size:64}") int maxBatchSize,
+                                @Value("${users.profile.group-commit.max-delay-ms:5}") long maxDelayMillis,
+                                @Value("${users.profile.group-commit.queue-capacity:10000}") int queueCapacity,
+                                @Value("${users.profile.group-commit.timeout-ms:10000}") long timeoutMillis) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.groupCommit = groupCommit;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.timeoutMillis = timeoutMillis;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (groupCommit) {
+            running = true;
+            worker = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "profile-group-commit");
+                thread.setDaemon(true);
+                return thread;
+            });
+            worker.execute(this::run);
+        }
+    }
+
+    // lets the worker commit everything still queued before the application goes down,
+    // what it did not get to in time fails instead of leaving its callers waiting
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (worker != null) {
+            worker.shutdown();
+            worker.awaitTermination(5, TimeUnit.SECONDS);
+            List<PendingUpdate> left = new ArrayList<>();
+            queue.drainTo(left);
+            fail(left, new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "The application is shutting down"));
+        }
+    }
+
+    /**
+     * Applies the update and returns once it is committed.
+     *
+     * @param update the mutation, runs inside a transaction (possibly together with other updates)
+     * @throws org.springframework.web.server.ResponseStatusException 503 if the queue is full
+     *         or the update was not committed within the timeout
+     */
+    public void execute(Runnable update) {
+        if (!groupCommit || !running) {
+            executeAlone(update);
+            return;
+        }
+        PendingUpdate pending = new PendingUpdate(update);
+        if (!queue.offer(pending)) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many pending profile updates");
+        }
+        // stopped meanwhile: the worker might be gone already, an update it did not take runs here
+        if (!running && queue.remove(pending)) {
+            executeAlone(update);
+            return;
+        }
+        try {
+            pending.committed.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Profile update failed", e.getCause());
+        }
+        catch (TimeoutException e) {
+            // still queued -> removed, it will not run; otherwise its batch is running and might still commit
+            boolean dropped = queue.remove(pending);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    dropped ? "The profile update timed out" : "The profile update timed out, it might still be applied");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Interrupted while waiting for the profile update");
+        }
+    }
+
+    private void executeAlone(Runnable update) {
+        long start = System.nanoTime();
+        transactionTemplate.executeWithoutResult(status -> update.run());
+        record(1, System.nanoTime() - start);
+    }
+
+    private void run() {
+        List<PendingUpdate> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingUpdate first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - batch.size());
+
+                // wait for more updates until the batch is full or the oldest update waited long enough
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingUpdate next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                }
+                commit(batch);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(batch, new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "The application is shutting down"));
+                return;
+            }
+            catch (Throwable e) {
+                // an Error (e.g. OutOfMemoryError) must neither end the worker nor leave the callers of the batch waiting
+                log.error("Group commit of {} profile updates failed", batch.size(), e);
+                fail(batch, e);
+            }
+            finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<PendingUpdate> batch) {
+        long start = System.nanoTime();
+        try {
+            transactionTemplate.executeWithoutResult(status -> batch.forEach(pending -> pending.update.run()));
+            batch.forEach(pending -> pending.committed.complete(null));
+        }
+        catch (RuntimeException batchFailure) {
+            log.debug("Group commit of {} profile updates failed, retrying them one by one", batch.size(), batchFailure);
+            for (PendingUpdate pending : batch) {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> pending.update.run());
+                    pending.committed.complete(null);
+                }
+                catch (Throwable e) {
+                    pending.committed.completeExceptionally(e);
+                }
+            }
+        }
+        record(batch.size(), System.nanoTime() - start);
+    }
+
+    // updates of the batch which already completed keep their result
+    private static void fail(List<PendingUpdate> batch, Throwable cause) {
+        batch.forEach(pending -> pending.committed.completeExceptionally(cause));
+    }
+
+    private void record(int batchSize, long nanos) {
+        batches.increment();
+        updates.add(batchSize);
+        commitNanos.add(nanos);
+        largestBatch.accumulateAndGet(batchSize, Math::max);
+    }
+
+    public boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getUpdates() {
+        return updates.sum();
+    }
+
+    public long getLargestBatch() {
+        return largestBatch.get();
+    }
+
+    public long getCommitNanos() {
+        return commitNanos.sum();
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    private static final class PendingUpdate {
+        private final Runnable update;
+        private final CompletableFuture<Void> committed = new CompletableFuture<>();
+
+        private PendingUpdate(Runnable update) {
+            this.update = update;
+        }
+    }
+}
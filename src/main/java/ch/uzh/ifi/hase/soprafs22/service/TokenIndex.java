@@ -0,0 +1,39 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Function;
+
+/**
+ * Token Index
+ * In-memory index token -> user id, filled lazily from the database the first time a token is seen.
+ * Tokens never change after signup, so entries do not expire and are only bounded in number.
+ * Unknown tokens are not remembered (a miss always asks the loader again).
+ */
+@Component
+public class TokenIndex {
+
+    private final Cache<String, Long> userIdsByToken;
+
+    public TokenIndex(@Value("${users.auth.token-index.maximum-size:100000}") long maximumSize) {
+        this.userIdsByToken = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    // returns the id of the user owning the token, or null if no user has this token
+    public Long getUserId(String token, Function<String, Long> loader) {
+        return userIdsByToken.get(token, loader);
+    }
+
+    public void put(String token, long userId) {
+        userIdsByToken.put(token, userId);
+    }
+
+    public void clear() {
+        userIdsByToken.invalidateAll();
+    }
+}
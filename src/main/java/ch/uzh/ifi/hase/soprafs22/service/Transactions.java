@@ -0,0 +1,28 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Helpers for the in-memory indexes which must only reflect committed changes.
+ */
+final class Transactions {
+
+    private Transactions() {
+    }
+
+    // inside a transaction the change is applied once it is committed, otherwise right away
+    static void afterCommit(Runnable change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    change.run();
+                }
+            });
+        }
+        else {
+            change.run();
+        }
+    }
+}
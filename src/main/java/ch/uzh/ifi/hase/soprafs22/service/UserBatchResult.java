@@ -0,0 +1,45 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Outcome of one item of a bulk user creation (see UserService.createUsers).
+ * Either the created user, or the status and reason why the item was rejected.
+ */
+public class UserBatchResult {
+
+    private final User user;
+    private final HttpStatus status;
+    private final String error;
+
+    private UserBatchResult(User user, HttpStatus status, String error) {
+        this.user = user;
+        this.status = status;
+        this.error = error;
+    }
+
+    public static UserBatchResult created(User user) {
+        return new UserBatchResult(user, HttpStatus.CREATED, null);
+    }
+
+    public static UserBatchResult rejected(HttpStatus status, String error) {
+        return new UserBatchResult(null, status, error);
+    }
+
+    public boolean isCreated() {
+        return user != null;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public HttpStatus getStatus() {
+        return status;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
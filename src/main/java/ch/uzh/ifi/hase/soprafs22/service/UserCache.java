@@ -0,0 +1,202 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.datasource.ReplicaLagMonitor;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+/**
+ * User Cache
+ * Bounded in-process read-through cache in front of the user lookups by id and by username.
+ * Entries are evicted when the cache is full (size based) or when they are older than the TTL.
+ * The cache holds detached snapshots of the users, they are shared between requests and must not be modified.
+ * Everything that changes a user has to call evict(), the UserService does this for all of its mutations.
+ * The lookups of the GET endpoints only need the exposed columns, they are cached as UserSummary projections
+ * next to the full users (which login and status toggle need), evict() removes both.
+ */
+@Component
+public class UserCache {
+
+    private final Cache<Long, User> usersById;
+    private final Cache<String, User> usersByUsername;
+    private final Cache<Long, UserSummary> summariesById;
+    private final Cache<String, UserSummary> summariesByUsername;
+    // maximal replication lag of the read replica, 0 without replica
+    private final long replicaLagMillis;
+
+    @Autowired
+    public UserCache(@Value("${users.cache.maximum-size:10000}") long maximumSize,
+                     @Value("${users.cache.ttl-seconds:60}") long ttlSeconds,
+                     ObjectProvider<ReplicaLagMonitor> replicaLagMonitor) {
+        this(maximumSize, ttlSeconds, replicaLagMonitor.stream().mapToLong(ReplicaLagMonitor::getMaxLagMillis).findFirst().orElse(0));
+    }
+
+    public UserCache(long maximumSize, long ttlSeconds) {
+        this(maximumSize, ttlSeconds, 0);
+    }
+
+    private UserCache(long maximumSize, long ttlSeconds, long replicaLagMillis) {
+        this.replicaLagMillis = replicaLagMillis;
+        this.usersById = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        this.usersByUsername = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        this.summariesById = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        this.summariesByUsername = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+    }
+
+    // returns the cached user or loads it with the loader, misses (null) are not cached
+    public User getById(long id, LongFunction<User> loader) {
+        return usersById.get(id, key -> snapshot(loader.apply(key)));
+    }
+
+    // returns the cached user or loads it with the loader, misses (null) are not cached
+    public User getByUsername(String username, Function<String, User> loader) {
+        return usersByUsername.get(username, key -> snapshot(loader.apply(key)));
+    }
+
+    /**
+     * Removes the user from the cache. Has to be called with the state before the change (e.g. the old username).
+     * Inside a transaction the entries are evicted a second time after the commit, so a concurrent reader
+     * which loaded the old row before the commit can not leave a stale entry behind.
+     * With a read replica a lookup shortly after the commit can still read the old row from the replica,
+     * so the entries are evicted once more when the maximal replication lag has passed.
+     *
+     * @param id the id of the changed user
+     * @param username the username of the user before the change
+     */
+    public void evict(long id, String username) {
+        invalidate(id, username);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidate(id, username);
+                    if (replicaLagMillis > 0) {
+                        CompletableFuture.runAsync(() -> invalidate(id, username),
+                                CompletableFuture.delayedExecutor(replicaLagMillis, TimeUnit.MILLISECONDS));
+                    }
+                }
+            });
+        }
+    }
+
+    // a cached full user is used if there is one (asMap().get does not count as a hit or miss of the full cache),
+    // otherwise the summary is cached itself, misses (null) are not cached
+    public UserSummary getSummaryById(long id, LongFunction<UserSummary> loader) {
+        User user = usersById.asMap().get(id);
+        return user != null ? UserSummary.of(user) : summariesById.get(id, loader::apply);
+    }
+
+    public UserSummary getSummaryByUsername(String username, Function<String, UserSummary> loader) {
+        User user = usersByUsername.asMap().get(username);
+        return user != null ? UserSummary.of(user) : summariesByUsername.get(username, loader);
+    }
+
+    // puts a freshly read user into both caches, used to warm the cache at startup (WarmStartSnapshot)
+    public void preload(User user) {
+        User copy = snapshot(user);
+        usersById.put(copy.getId(), copy);
+        usersByUsername.put(copy.getUsername(), copy);
+    }
+
+    // ids of the users currently cached, written into the warm start snapshot
+    public Set<Long> getCachedIds() {
+        return Set.copyOf(usersById.asMap().keySet());
+    }
+
+    public void clear() {
+        usersById.invalidateAll();
+        usersByUsername.invalidateAll();
+        summariesById.invalidateAll();
+        summariesByUsername.invalidateAll();
+    }
+
+    public CacheStats getByIdStats() {
+        return usersById.stats();
+    }
+
+    public CacheStats getByUsernameStats() {
+        return usersByUsername.stats();
+    }
+
+    public CacheStats getSummaryByIdStats() {
+        return summariesById.stats();
+    }
+
+    public CacheStats getSummaryByUsernameStats() {
+        return summariesByUsername.stats();
+    }
+
+    public long getSummaryByIdSize() {
+        return summariesById.estimatedSize();
+    }
+
+    public long getSummaryByUsernameSize() {
+        return summariesByUsername.estimatedSize();
+    }
+
+    public long getByIdSize() {
+        return usersById.estimatedSize();
+    }
+
+    public long getByUsernameSize() {
+        return usersByUsername.estimatedSize();
+    }
+
+    private void invalidate(long id, String username) {
+        usersById.invalidate(id);
+        summariesById.invalidate(id);
+        if (username != null) {
+            usersByUsername.invalidate(username);
+            summariesByUsername.invalidate(username);
+        }
+    }
+
+    // copies the fields into a new, unmanaged user so the cached value is independent of any persistence context
+    // (also used by the UserService to change a field of a cached user without modifying the shared snapshot)
+    static User snapshot(User user) {
+        if (user == null) {
+            return null;
+        }
+        User copy = new User();
+        copy.setId(user.getId());
+        copy.setUsername(user.getUsername());
+        copy.setPassword(user.getPassword());
+        copy.setToken(user.getToken());
+        copy.setStatus(user.getStatus());
+        copy.setCreationDate(user.getCreationDate());
+        copy.setBirthday(user.getBirthday());
+        copy.setVersion(user.getVersion());
+        return copy;
+    }
+}
@@ -0,0 +1,72 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import java.time.LocalDate;
+
+/**
+ * User Change Event
+ * Published by the UserService (ApplicationEventPublisher) for every change of a user. Listeners which must only
+ * see committed changes use @TransactionalEventListener (with fallbackExecution: status toggles have no transaction).
+ * Only the fields of the change are set, e.g. a STATUS event carries the id and the new status.
+ */
+public class UserChangeEvent {
+
+    public enum Type {
+        CREATED, STATUS, USERNAME, BIRTHDAY
+    }
+
+    private final Type type;
+    private final long id;
+    private final String username;
+    private final Boolean status;
+    private final LocalDate birthday;
+    private final LocalDate creationDate;
+
+    private UserChangeEvent(Type type, long id, String username, Boolean status, LocalDate birthday, LocalDate creationDate) {
+        this.type = type;
+        this.id = id;
+        this.username = username;
+        this.status = status;
+        this.birthday = birthday;
+        this.creationDate = creationDate;
+    }
+
+    public static UserChangeEvent created(long id, String username, Boolean status, LocalDate creationDate) {
+        return new UserChangeEvent(Type.CREATED, id, username, status, null, creationDate);
+    }
+
+    public static UserChangeEvent status(long id, boolean status) {
+        return new UserChangeEvent(Type.STATUS, id, null, status, null, null);
+    }
+
+    public static UserChangeEvent username(long id, String username) {
+        return new UserChangeEvent(Type.USERNAME, id, username, null, null, null);
+    }
+
+    public static UserChangeEvent birthday(long id, LocalDate birthday) {
+        return new UserChangeEvent(Type.BIRTHDAY, id, null, null, birthday, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public Boolean getStatus() {
+        return status;
+    }
+
+    public LocalDate getBirthday() {
+        return birthday;
+    }
+
+    public LocalDate getCreationDate() {
+        return creationDate;
+    }
+}
@@ -0,0 +1,66 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.datasource.ReplicaLagMonitor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User List Version
+ * Collection-wide version of the users, bumped by every change which is visible in GET /users.
+ * Used as the ETag of the user list, so an unchanged poll is answered with 304 without loading a single user.
+ * The version starts with the startup time, an ETag from before a restart therefore never matches.
+ */
+@Component
+public class UserListVersion {
+
+    private final long epoch = System.currentTimeMillis();
+    private final AtomicLong version = new AtomicLong();
+    // maximal replication lag of the read replica, 0 without replica
+    private final long replicaLagMillis;
+
+    @Autowired
+    public UserListVersion(ObjectProvider<ReplicaLagMonitor> replicaLagMonitor) {
+        this(replicaLagMonitor.stream().mapToLong(ReplicaLagMonitor::getMaxLagMillis).findFirst().orElse(0));
+    }
+
+    public UserListVersion() {
+        this(0);
+    }
+
+    UserListVersion(long replicaLagMillis) {
+        this.replicaLagMillis = replicaLagMillis;
+    }
+
+    public String get() {
+        return epoch + "." + version.get();
+    }
+
+    /**
+     * Marks the user list as changed. Inside a transaction the version is bumped again after the commit,
+     * so a reader which saw the new version before the commit can not keep the old data under it.
+     * With a read replica the page read right after the commit can still come from a replica without the change,
+     * so the version is bumped once more when the maximal replication lag has passed (like UserCache.evict).
+     */
+    public void bump() {
+        version.incrementAndGet();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    version.incrementAndGet();
+                    if (replicaLagMillis > 0) {
+                        CompletableFuture.runAsync(version::incrementAndGet,
+                                CompletableFuture.delayedExecutor(replicaLagMillis, TimeUnit.MILLISECONDS));
+                    }
+                }
+            });
+        }
+    }
+}
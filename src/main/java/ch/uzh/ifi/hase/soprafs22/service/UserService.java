@@ -3,18 +3,38 @@ package ch.uzh.ifi.hase.soprafs22.service;
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
 import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.repository.UserTableState;
+import io.micrometer.core.annotation.Timed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -22,24 +42,186 @@ import java.util.Date;
  * User Service
  * This class is the "worker" and responsible for all functionality related to the user
  * (e.g., it creates, modifies, deletes, finds). The result will be passed back to the caller.
+ * The public methods called by the UserController are timed (metric users.service, tagged with the method).
+ * Every change of a user is published as a UserChangeEvent (e.g. for the UserChangeFeed).
  */
 @Service
 @Transactional
 public class UserService {
 
+    // upper bound for a single page of GET /users, larger requests are clamped
+    public static final int MAX_PAGE_SIZE = 100;
+
+    // upper bound for the number of users created by one bulk request
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    // upper bound for the number of results of the username search
+    public static final int MAX_SEARCH_RESULTS = 50;
+
     private final Logger log = LoggerFactory.getLogger(UserService.class);
     private final UserRepository userRepository;
+    private final UserCache userCache;
+    private final UsernameFilter usernameFilter;
+    private final TokenIndex tokenIndex;
+    private final PresenceRegistry presenceRegistry;
+    private final ProfileUpdateBatcher profileUpdateBatcher;
+    private final UserListVersion userListVersion;
+    private final PasswordHasher passwordHasher;
+    private final UsernamePrefixIndex usernamePrefixIndex;
+    private final UsernameTrigramIndex usernameTrigramIndex;
+    private final WarmStartSnapshot warmStartSnapshot;
+    private final ApplicationEventPublisher eventPublisher;
 
     @Autowired
-    public UserService(@Qualifier("userRepository") UserRepository userRepository) {
+    public UserService(@Qualifier("userRepository") UserRepository userRepository, UserCache userCache,
+                       UsernameFilter usernameFilter, TokenIndex tokenIndex, PresenceRegistry presenceRegistry,
+                       ProfileUpdateBatcher profileUpdateBatcher, UserListVersion userListVersion,
+                       PasswordHasher passwordHasher, UsernamePrefixIndex usernamePrefixIndex,
+                       UsernameTrigramIndex usernameTrigramIndex, WarmStartSnapshot warmStartSnapshot,
+                       ApplicationEventPublisher eventPublisher) {
         this.userRepository = userRepository;
+        this.userCache = userCache;
+        this.usernameFilter = usernameFilter;
+        this.tokenIndex = tokenIndex;
+        this.presenceRegistry = presenceRegistry;
+        this.profileUpdateBatcher = profileUpdateBatcher;
+        this.userListVersion = userListVersion;
+        this.passwordHasher = passwordHasher;
+        this.usernamePrefixIndex = usernamePrefixIndex;
+        this.usernameTrigramIndex = usernameTrigramIndex;
+        this.warmStartSnapshot = warmStartSnapshot;
+        this.eventPublisher = eventPublisher;
+    }
+
+    /**
+     * Loads all existing usernames into the in-memory UsernameFilter and the search indexes (UsernamePrefixIndex,
+     * UsernameTrigramIndex) once the application is up. Until this is done the filter answers "might be taken" and every check goes to the database.
+     * After a clean shutdown of the durable profile the usernames come from the WarmStartSnapshot instead, if the user table
+     * is still in the state the snapshot was written for (UserTableState). The users which were cached before the shutdown
+     * are read from the database into the UserCache and their tokens into the TokenIndex,
+     * so the first requests after a restart do not all miss.
+     */
+    // not read-only: with a read replica the usernames have to come from the primary, a lagging replica would miss some
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadUsernames() {
+        long start = System.nanoTime();
+        WarmStartSnapshot.Contents snapshot = warmStartSnapshot.consume();
+        // the snapshot is only trusted if the table has not changed since it was written
+        if (snapshot != null) {
+            UserTableState tableState = this.userRepository.getTableState();
+            if (!tableState.equals(snapshot.getTableState())) {
+                log.warn("Ignoring warm start snapshot: written for {}, the database has {}", snapshot.getTableState(), tableState);
+                snapshot = null;
+            }
+        }
+        if (snapshot != null) {
+            snapshot.getUsernames().forEach(this::loadUsername);
+            for (User user : this.userRepository.findAllById(snapshot.getHotUserIds())) {
+                userCache.preload(user);
+                tokenIndex.put(user.getToken(), user.getId());
+            }
+        }
+        else {
+            try (Stream<String> usernames = this.userRepository.streamAllUsernames()) {
+                usernames.forEach(this::loadUsername);
+            }
+        }
+        usernameFilter.markLoaded();
+        log.info("Loaded {} usernames from the {} in {} ms, ready {} ms after the JVM start",
+                usernamePrefixIndex.size(), snapshot != null ? "warm start snapshot" : "database",
+                (System.nanoTime() - start) / 1_000_000, ManagementFactory.getRuntimeMXBean().getUptime());
     }
 
-    public List<User> getUsers() {
-        return this.userRepository.findAll();
+    private void loadUsername(String username) {
+        usernameFilter.put(username);
+        usernamePrefixIndex.load(username);
+        usernameTrigramIndex.load(username);
     }
 
+    /**
+     * Writes the WarmStartSnapshot when the application shuts down (durable profile only).
+     * A failure is only logged, the next start then rebuilds everything from the database.
+     */
+    // not read-only: the table state has to come from the primary
+    @EventListener(ContextClosedEvent.class)
+    public void writeWarmStartSnapshot() {
+        if (!warmStartSnapshot.isEnabled()) {
+            return;
+        }
+        // the table state before the usernames: a change in between makes the snapshot stale (rebuilt), never wrongly trusted
+        UserTableState tableState = this.userRepository.getTableState();
+        try {
+            warmStartSnapshot.write(new WarmStartSnapshot.Contents(tableState, List.copyOf(usernamePrefixIndex.usernames()),
+                    userCache.getCachedIds()));
+        }
+        catch (IOException e) {
+            log.warn("Could not write the warm start snapshot", e);
+        }
+    }
+
+    // version of the whole user list, changes with every create, status toggle and profile update
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public String getUsersVersion() {
+        return userListVersion.get();
+    }
+
+    /**
+     * Returns one page of users ordered by id (keyset pagination).
+     * Only users with an id greater than the cursor are read, so the cost of a page does not depend
+     * on how far into the table the client already is.
+     *
+     * @param after the id of the last user of the previous page (0 for the first page)
+     * @param limit the requested page size, clamped to [1, MAX_PAGE_SIZE]
+     * @return a slice of users which knows whether there is a next page
+     */
+    @Transactional(readOnly = true)
+    @Timed("users.service")
+    public Slice<UserSummary> getUsers(long after, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        return this.userRepository.findSummariesByIdGreaterThan(after, PageRequest.of(0, pageSize)).map(this::withPresence);
+    }
+
+    /**
+     * Hands every user to the sink, ordered by id, without ever holding the whole table in memory.
+     * The users are read through a database cursor as UserSummary projections, which are not managed entities:
+     * the persistence context stays empty and exported rows can be garbage collected right away.
+     *
+     * @param sink called once per user
+     */
+    @Transactional(readOnly = true)
+    @Timed("users.service")
+    public void exportUsers(Consumer<UserSummary> sink) {
+        try (Stream<UserSummary> users = this.userRepository.streamAllSummaries()) {
+            users.forEach(user -> sink.accept(withPresence(user)));
+        }
+    }
+
+    // Server: UserController (signup)
+    // hashes the password on the PasswordHasher pool, createUser() expects the hashed password
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public CompletableFuture<String> hashPassword(String rawPassword) {
+        return passwordHasher.hash(rawPassword);
+    }
+
+    // Server: UserController (bulk signup)
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public CompletableFuture<List<String>> hashPasswords(List<String> rawPasswords) {
+        return passwordHasher.hashAll(rawPasswords);
+    }
+
+    // Server: UserController (login)
+    // compares the password with the stored hash on the PasswordHasher pool
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public CompletableFuture<Boolean> checkPassword(User user, String rawPassword) {
+        return passwordHasher.matches(rawPassword, user.getPassword());
+    }
+
+    // the password of the new user has to be hashed already (see hashPassword)
+    @Timed("users.service")
     public User createUser(User newUser) {
+        if (isBlank(newUser.getUsername()) || isBlank(newUser.getPassword())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Username and password are required");
+        }
         newUser.setToken(UUID.randomUUID().toString());
         newUser.setStatus(Boolean.FALSE);
 
@@ -52,11 +234,88 @@ public class UserService {
         // saves the given entity but data is only persisted in the database once flush() is called
         newUser = userRepository.save(newUser);
         userRepository.flush();
+        usernameFilter.put(newUser.getUsername());
+        usernamePrefixIndex.put(newUser.getUsername());
+        usernameTrigramIndex.put(newUser.getUsername());
+        tokenIndex.put(newUser.getToken(), newUser.getId());
+        userListVersion.bump();
+        eventPublisher.publishEvent(UserChangeEvent.created(newUser.getId(), newUser.getUsername(),
+                newUser.getStatus(), newUser.getCreationDate()));
 
         log.debug("Created Information for User: {}", newUser);
         return newUser;
     }
 
+    /**
+     * Creates many users in one transaction. All usernames which the UsernameFilter can not rule out are checked
+     * with a single query, the accepted users are inserted together when the transaction is flushed
+     * (as JDBC batches, see hibernate.jdbc.batch_size). Items without username/password or with a taken username
+     * (also within the same batch) are rejected individually, the others are still created.
+     *
+     * @param newUsers the users to create, at most MAX_BATCH_SIZE
+     * @return one result per input user, in the same order
+     * @throws org.springframework.web.server.ResponseStatusException if the batch is too large
+     */
+    @Timed("users.service")
+    public List<UserBatchResult> createUsers(List<User> newUsers) {
+        if (newUsers.size() > MAX_BATCH_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("At most %d users can be created at once", MAX_BATCH_SIZE));
+        }
+
+        // one query for all usernames the filter can not rule out
+        Set<String> candidates = new HashSet<>();
+        for (User newUser : newUsers) {
+            if (newUser.getUsername() != null && usernameFilter.mightContain(newUser.getUsername())) {
+                candidates.add(newUser.getUsername());
+            }
+        }
+        Set<String> takenUsernames = candidates.isEmpty() ? new HashSet<>()
+                : new HashSet<>(userRepository.findExistingUsernames(candidates));
+
+        String baseErrorMessage = "This %s %s already taken. Therefore, the user could not be created!";
+        LocalDate date = LocalDate.now();
+        List<UserBatchResult> results = new ArrayList<>(newUsers.size());
+        List<User> acceptedUsers = new ArrayList<>();
+        for (User newUser : newUsers) {
+            if (isBlank(newUser.getUsername()) || isBlank(newUser.getPassword())) {
+                results.add(UserBatchResult.rejected(HttpStatus.BAD_REQUEST, "Username and password are required"));
+            }
+            else if (!takenUsernames.add(newUser.getUsername())) {
+                results.add(UserBatchResult.rejected(HttpStatus.CONFLICT, String.format(baseErrorMessage, "username", "is")));
+            }
+            else {
+                newUser.setToken(UUID.randomUUID().toString());
+                newUser.setStatus(Boolean.FALSE);
+                newUser.setCreationDate(date);
+                acceptedUsers.add(newUser);
+                results.add(UserBatchResult.created(newUser));
+            }
+        }
+
+        // persist() only queues the inserts, the single flush sends them as batches
+        userRepository.saveAll(acceptedUsers);
+        userRepository.flush();
+        for (User createdUser : acceptedUsers) {
+            usernameFilter.put(createdUser.getUsername());
+            usernamePrefixIndex.put(createdUser.getUsername());
+            usernameTrigramIndex.put(createdUser.getUsername());
+            tokenIndex.put(createdUser.getToken(), createdUser.getId());
+            eventPublisher.publishEvent(UserChangeEvent.created(createdUser.getId(), createdUser.getUsername(),
+                    createdUser.getStatus(), createdUser.getCreationDate()));
+        }
+        if (!acceptedUsers.isEmpty()) {
+            userListVersion.bump();
+        }
+
+        log.debug("Created {} of {} users in one batch", acceptedUsers.size(), newUsers.size());
+        return results;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
     /**
      * This is a helper method that will check the uniqueness criteria of the username and the name
      * defined in the User entity. The method will do nothing if the input is unique and throw an error otherwise.
@@ -66,6 +325,10 @@ public class UserService {
      * @see User
      */
     private void checkIfUserExists(User userToBeCreated) {
+        // definitely free according to the filter -> no need to ask the database
+        if (!usernameFilter.mightContain(userToBeCreated.getUsername())) {
+            return;
+        }
         User userByUsername = userRepository.findByUsername(userToBeCreated.getUsername());
 
         String baseErrorMessage = "This %s %s already taken. Therefore, the user could not be created!";
@@ -79,59 +342,203 @@ public class UserService {
      * -----------------------------------------------------------------------------------------------------------
      */
 
+    // Server: UserController (type-ahead search)
+    // usernames starting with the prefix (ignoring case), from the UsernamePrefixIndex without touching the database
+    @Timed("users.service")
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public List<String> searchUsernames(String prefix, int limit) {
+        return usernamePrefixIndex.search(prefix, Math.max(1, Math.min(limit, MAX_SEARCH_RESULTS)));
+    }
+
+    // Server: UserController (fuzzy search)
+    // usernames similar to the query (typos), most similar first, from the UsernameTrigramIndex
+    @Timed("users.service")
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public List<String> searchUsernamesFuzzy(String query, int limit) {
+        return usernameTrigramIndex.search(query, Math.max(1, Math.min(limit, MAX_SEARCH_RESULTS)));
+    }
+
+    // Server: UserController (profile pages)
+    // the exposed columns of the user only (no entity is loaded), read-through the UserCache
+    // read from the replica, a miss is looked up again on the primary before it is a 404: the replica might not
+    // have a user who just signed up. SUPPORTS -> each lookup runs in its own transaction on its own connection
+    @Timed("users.service")
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public UserSummary getUserSummaryById(long id) {
+        return withPresence(userCache.getSummaryById(id, key -> {
+            UserSummary user = this.userRepository.findSummaryById(key);
+            return user != null ? user : this.userRepository.findSummaryByIdOnPrimary(key);
+        }));
+    }
+
+    @Timed("users.service")
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public UserSummary getUserSummaryByUsername(String username) {
+        return withPresence(userCache.getSummaryByUsername(username, key -> {
+            UserSummary user = this.userRepository.findSummaryByUsername(key);
+            return user != null ? user : this.userRepository.findSummaryByUsernameOnPrimary(key);
+        }));
+    }
+
     // gets & returns the user via the findByUsername call in the userRepository
+    // read-through the UserCache, the returned user is a shared snapshot and must not be modified
+    // not read-only: login right after signup must find the user, a lagging read replica might not have it yet
+    @Timed("users.service")
+    @Transactional
     public User getUserByUsername(String username){
-        return this.userRepository.findByUsername(username);
+        return withPresence(userCache.getByUsername(username, this.userRepository::findByUsername));
     }
 
     // gets & returns the user via the findById call in the userRepository
+    // read-through the UserCache, the returned user is a shared snapshot and must not be modified
+    // not read-only (primary, see getUserByUsername): status and profile updates check the user with it
+    @Timed("users.service")
+    @Transactional
     public User getUserById(long id) {
-        return this.userRepository.findById(id);
+        return withPresence(userCache.getById(id, this.userRepository::findById));
+    }
+
+    // presence lives in the PresenceRegistry and reaches the status column only with the next flush,
+    // so reads take the status from the registry: a differing status is applied to a copy, the cached snapshot is shared
+    private User withPresence(User user) {
+        Boolean status = user == null ? null : presenceRegistry.getStatus(user.getId());
+        if (status == null || status.equals(user.getStatus())) {
+            return user;
+        }
+        User copy = UserCache.snapshot(user);
+        copy.setStatus(status);
+        return copy;
     }
 
+    private UserSummary withPresence(UserSummary user) {
+        Boolean status = user == null ? null : presenceRegistry.getStatus(user.getId());
+        return status == null || status.equals(user.getStatus()) ? user : user.withStatus(status);
+    }
 
     // Server: UserController
-    // gets the user by ID (User repo)
     // sets the status to Online if User is Offline or other way around
+    // the toggle is atomic and in memory only (PresenceRegistry), flushPresence() writes it to the database later
+    @Transactional(propagation = Propagation.SUPPORTS)
+    @Timed("users.service")
     public void updateStatus(long id) {
-        User user = this.getUserById(id);
-        if (user.getStatus() == Boolean.FALSE){
-            user.setStatus(Boolean.TRUE);
+        Boolean initialStatus = null;
+        if (presenceRegistry.getStatus(id) == null) {
+            // first toggle since startup -> the database has the current status
+            User user = this.getUserById(id);
+            if (user == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found by ID Errorcode 404");
+            }
+            initialStatus = user.getStatus();
         }
-        else{
-            user.setStatus(Boolean.FALSE);
+        boolean status = presenceRegistry.toggle(id, initialStatus);
+        userListVersion.bump();
+        eventPublisher.publishEvent(UserChangeEvent.status(id, status));
+    }
+
+    /**
+     * Writes the status changes collected in the PresenceRegistry to the database,
+     * every users.presence.flush-interval-ms and once more when the application shuts down.
+     * All users going online and all users going offline are updated with one statement each.
+     */
+    @Scheduled(fixedDelayString = "${users.presence.flush-interval-ms:1000}")
+    @EventListener(ContextClosedEvent.class)
+    @Timed("users.service")
+    public void flushPresence() {
+        Map<Long, Boolean> changes = presenceRegistry.drainChanges();
+        if (changes.isEmpty()) {
+            return;
         }
-        userRepository.flush(); // used to make sure data is written, else it could be buffered
+        List<Long> online = new ArrayList<>();
+        List<Long> offline = new ArrayList<>();
+        for (Map.Entry<Long, Boolean> change : changes.entrySet()) {
+            if (Boolean.TRUE.equals(change.getValue())) {
+                online.add(change.getKey());
+            }
+            else {
+                offline.add(change.getKey());
+            }
+        }
+        try {
+            if (!online.isEmpty()) {
+                userRepository.updateStatus(Boolean.TRUE, online);
+            }
+            if (!offline.isEmpty()) {
+                userRepository.updateStatus(Boolean.FALSE, offline);
+            }
+        }
+        catch (RuntimeException e) {
+            // nothing is committed -> write the same users again with the next flush
+            presenceRegistry.markDirty(changes.keySet());
+            throw e;
+        }
+        log.debug("Wrote the status of {} users", changes.size());
     }
 
     // Server: UserController
     // Client: Edit.js
     // updates Birthday
+    // runs in its own transaction, or grouped with other profile updates (see ProfileUpdateBatcher)
+    @Transactional(propagation = Propagation.SUPPORTS)
+    @Timed("users.service")
     public void updateBirthday(long id, LocalDate birthday) {
-        User user = this.getUserById(id);
-        user.setBirthday(birthday);
-        // SimpleDateFormat formatter = new SimpleDateFormat("dd-MM-yyyy");
-        //user.setBirthday(formatter.format(birthday));
-
-        userRepository.flush(); // used to make sure data is written, else it could be buffered
+        profileUpdateBatcher.execute(() -> applyBirthday(id, birthday));
     }
 
     // Server: UserController
     // Client: Edit.js
     // updates username
+    // runs in its own transaction, or grouped with other profile updates (see ProfileUpdateBatcher)
+    @Transactional(propagation = Propagation.SUPPORTS)
+    @Timed("users.service")
     public void updateUsername(long id, String username) {
-        User user = this.getUserById(id);
+        profileUpdateBatcher.execute(() -> applyUsername(id, username));
+    }
+
+    // the changes are written when the surrounding transaction commits
+    private void applyBirthday(long id, LocalDate birthday) {
+        User user = this.userRepository.findById(id);
+        userCache.evict(id, user.getUsername());
+        userListVersion.bump();
+        user.setBirthday(birthday);
+        eventPublisher.publishEvent(UserChangeEvent.birthday(id, birthday));
+        // SimpleDateFormat formatter = new SimpleDateFormat("dd-MM-yyyy");
+        //user.setBirthday(formatter.format(birthday));
+    }
+
+    // the changes are written when the surrounding transaction commits
+    // (a rename earlier in the same batch is flushed before the exists query runs)
+    private void applyUsername(long id, String username) {
+        User user = this.userRepository.findById(id);
 
         String baseErrorMessage = "This %s %s already taken. Therefore, the user could not be created!";
-        if (userRepository.existsUserByUsername(username)) {
+        if (usernameFilter.mightContain(username) && userRepository.existsUserByUsername(username)) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format(baseErrorMessage, "username", "is"));
-        }else
+        }
 
-            user.setUsername(username);
-        userRepository.flush(); // used to make sure data is written, else it could be buffered
+        userCache.evict(id, user.getUsername());
+        userListVersion.bump();
+        usernamePrefixIndex.rename(user.getUsername(), username);
+        usernameTrigramIndex.rename(user.getUsername(), username);
+        user.setUsername(username);
+        usernameFilter.put(username);
+        eventPublisher.publishEvent(UserChangeEvent.username(id, username));
+    }
 
+    // Server: TokenAuthenticationFilter
+    // resolves the token through the TokenIndex, only the first lookup of a token reaches the database
+    // SUPPORTS -> an index hit does not open a transaction (and does not take a connection from the pool)
+    @Transactional(propagation = Propagation.SUPPORTS)
+    @Timed("users.service")
+    public Long getUserIdByToken(String token) {
+        return tokenIndex.getUserId(token, key -> {
+            User user = this.userRepository.findByToken(key);
+            return user == null ? null : user.getId();
+        });
     }
 
+    // not read-only: the existence check of the updates has to see users created a moment ago (primary)
+    @Timed("users.service")
+    @Transactional
     public void existsById(long id){
         if(this.getUserById(id) == null){
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found by ID Errorcode 404");
@@ -0,0 +1,95 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Username Filter
+ * In-memory Bloom filter over all usernames which are (or were) taken.
+ * mightContain() == false means the username is definitely free and the database does not have to be asked,
+ * true means it might be taken and the caller has to check the database.
+ * Usernames can not be removed (renames leave the old name behind), that only adds false positives.
+ * Until the filter has been loaded from the database it answers true for every username.
+ * The unique constraint on User.username stays the final arbiter for concurrent signups.
+ */
+@Component
+public class UsernameFilter {
+
+    private final AtomicLongArray bits;
+    private final long numBits;
+    private final int numHashes;
+
+    private volatile boolean loaded;
+
+    public UsernameFilter(@Value("${users.username-filter.expected-usernames:1000000}") long expectedUsernames,
+                          @Value("${users.username-filter.false-positive-rate:0.01}") double falsePositiveRate) {
+        // optimal size and number of hash functions for the expected number of usernames
+        // capped at 2^31 bits, which is all the int based double hashing can address
+        long optimalBits = (long) Math.ceil(-expectedUsernames * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(1L << 25, Math.max(1, (optimalBits + 63) / 64));
+        this.bits = new AtomicLongArray(words);
+        this.numBits = (long) words * 64;
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / Math.max(1, expectedUsernames) * Math.log(2)));
+    }
+
+    public void put(String username) {
+        if (username == null) {
+            return;
+        }
+        long hash = hash64(username);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long bit = bitIndex(hash1 + i * hash2);
+            long mask = 1L << bit;
+            bits.accumulateAndGet((int) (bit >>> 6), mask, (word, m) -> word | m);
+        }
+    }
+
+    public boolean mightContain(String username) {
+        if (!loaded || username == null) {
+            return true;
+        }
+        long hash = hash64(username);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long bit = bitIndex(hash1 + i * hash2);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // called once all existing usernames have been put, from then on a negative answer can be trusted
+    public void markLoaded() {
+        this.loaded = true;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    private long bitIndex(int combinedHash) {
+        return (combinedHash & Integer.MAX_VALUE) % numBits;
+    }
+
+    // FNV-1a over the UTF-8 bytes, finished with the murmur3 mixer to spread the bits
+    private static long hash64(String username) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : username.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb93fe1a85ec3L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
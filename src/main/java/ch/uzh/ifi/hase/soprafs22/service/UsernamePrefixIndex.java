@@ -0,0 +1,71 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Username Prefix Index
+ * All usernames in a sorted, concurrent in-memory map for the type-ahead search (GET /users/search).
+ * The keys are the lower case usernames, so the search is case insensitive and the users matching a prefix
+ * are one contiguous range of the map: a search reads at most limit entries, whatever the number of users.
+ * Filled at startup (UserService.loadUsernames), kept up to date on create and rename after the commit,
+ * so a rolled back change never shows up in the results.
+ */
+@Component
+public class UsernamePrefixIndex {
+
+    // separates the lower case key from the username, sorts before every other character
+    private static final char SEPARATOR = '\0';
+
+    private final ConcurrentSkipListMap<String, String> usernames = new ConcurrentSkipListMap<>();
+
+    // while loading at startup, outside of the transactions of the users
+    public void load(String username) {
+        usernames.put(key(username), username);
+    }
+
+    public void put(String username) {
+        Transactions.afterCommit(() -> usernames.put(key(username), username));
+    }
+
+    public void rename(String oldUsername, String newUsername) {
+        Transactions.afterCommit(() -> {
+            usernames.remove(key(oldUsername));
+            usernames.put(key(newUsername), newUsername);
+        });
+    }
+
+    /**
+     * @return the first usernames (in alphabetical order, ignoring case) starting with the prefix, at most limit
+     */
+    public List<String> search(String prefix, int limit) {
+        String from = prefix.toLowerCase(Locale.ROOT);
+        NavigableMap<String, String> matches = usernames.subMap(from, true, from + Character.MAX_VALUE, false);
+        List<String> results = new ArrayList<>(Math.min(limit, 16));
+        Iterator<String> iterator = matches.values().iterator();
+        while (iterator.hasNext() && results.size() < limit) {
+            results.add(iterator.next());
+        }
+        return results;
+    }
+
+    public int size() {
+        return usernames.size();
+    }
+
+    // all indexed usernames in key order, a live (weakly consistent) view
+    public Collection<String> usernames() {
+        return usernames.values();
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT) + SEPARATOR + username;
+    }
+}
@@ -0,0 +1,335 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Username Trigram Index
+ * In-memory inverted index from the trigrams (3 character substrings, lower case, padded like pg_trgm)
+ * of the usernames to the usernames containing them, for the typo tolerant search (GET /users/search/fuzzy).
+ * Results are ranked by similarity, the Jaccard index of the trigram sets, and must reach the threshold.
+ * The posting list of a trigram is split by the number of trigrams of the usernames, so the usernames which are
+ * too short or too long to reach the threshold (or the current top results) are skipped as a whole.
+ * The lists of the query are scanned from the shortest to the longest, the others are only probed (binary search),
+ * and the scan stops once the remaining lists can not produce a better match: the long lists of common trigrams
+ * (e.g. "use") are usually never scanned, so the cost of a search depends on the rare trigrams of the query
+ * rather than on the number of users.
+ * Filled at startup (UserService.loadUsernames), kept up to date on create and rename after the commit.
+ * A renamed username is removed from its posting lists right away; its id stays a gap until the gaps outnumber
+ * the usernames, then all ids are given out anew, so the index does not grow with the number of renames.
+ */
+@Component
+public class UsernameTrigramIndex {
+
+    private static final TrigramPostings NO_POSTINGS = new TrigramPostings();
+
+    private final double threshold;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // guarded by lock, a username has an internal id, ids only grow so every posting list is sorted
+    private final Map<String, Integer> ids = new HashMap<>();
+    // by id, null once the username was renamed (a gap, it has no postings any more)
+    private final List<String> usernames = new ArrayList<>();
+    private final Map<String, TrigramPostings> postings = new HashMap<>();
+    private int gaps;
+
+    public UsernameTrigramIndex(@Value("${users.search.fuzzy.threshold:0.2}") double threshold) {
+        this.threshold = threshold;
+    }
+
+    // while loading at startup, outside of the transactions of the users
+    public void load(String username) {
+        add(username);
+    }
+
+    public void put(String username) {
+        Transactions.afterCommit(() -> add(username));
+    }
+
+    public void rename(String oldUsername, String newUsername) {
+        Transactions.afterCommit(() -> {
+            Set<String> oldTrigrams = trigrams(oldUsername);
+            lock.writeLock().lock();
+            try {
+                Integer id = ids.remove(oldUsername);
+                if (id != null) {
+                    remove(id, oldTrigrams);
+                }
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+            add(newUsername);
+        });
+    }
+
+    private void add(String username) {
+        Set<String> trigrams = trigrams(username);
+        lock.writeLock().lock();
+        try {
+            if (!ids.containsKey(username)) {
+                addLocked(username, trigrams);
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addLocked(String username, Set<String> trigrams) {
+        int id = usernames.size();
+        ids.put(username, id);
+        usernames.add(username);
+        for (String trigram : trigrams) {
+            postings.computeIfAbsent(trigram, key -> new TrigramPostings()).add(trigrams.size(), id);
+        }
+    }
+
+    private void remove(int id, Set<String> trigrams) {
+        usernames.set(id, null);
+        for (String trigram : trigrams) {
+            TrigramPostings list = postings.get(trigram);
+            if (list != null && list.remove(trigrams.size(), id) && list.size() == 0) {
+                postings.remove(trigram);
+            }
+        }
+        gaps++;
+        if (gaps > ids.size()) {
+            renumber();
+        }
+    }
+
+    // rebuilds the postings with consecutive ids, in the order of the old ids (the lists stay sorted)
+    private void renumber() {
+        List<String> remaining = new ArrayList<>(ids.size());
+        for (String username : usernames) {
+            if (username != null) {
+                remaining.add(username);
+            }
+        }
+        ids.clear();
+        usernames.clear();
+        postings.clear();
+        gaps = 0;
+        for (String username : remaining) {
+            addLocked(username, trigrams(username));
+        }
+    }
+
+    /**
+     * @return the usernames similar to the query, most similar first, at most limit
+     */
+    public List<String> search(String query, int limit) {
+        Set<String> queryTrigrams = trigrams(query);
+        PriorityQueue<Match> best = new PriorityQueue<>(Match.RANKING.reversed());
+        lock.readLock().lock();
+        try {
+            List<TrigramPostings> lists = new ArrayList<>();
+            for (String trigram : queryTrigrams) {
+                lists.add(postings.getOrDefault(trigram, NO_POSTINGS));
+            }
+            lists.sort(Comparator.comparingInt(TrigramPostings::size));
+
+            int queryCount = lists.size();
+            for (int i = 0; i < queryCount; i++) {
+                // a username first found in list i shares at most queryCount - i trigrams with the query
+                int maxShared = queryCount - i;
+                if (maxShared < threshold * queryCount
+                        || best.size() == limit && best.peek().similarity > (double) maxShared / queryCount) {
+                    break;
+                }
+                TrigramPostings list = lists.get(i);
+                for (int count = 1; count < list.byCount.length; count++) {
+                    Postings candidates = list.byCount[count];
+                    if (candidates == null || !canMatch(maxShared, queryCount, count, best, limit)) {
+                        continue;
+                    }
+                    for (int c = 0; c < candidates.size; c++) {
+                        int id = candidates.ids[c];
+                        int shared = countShared(lists, i, count, id);
+                        if (shared == 0) {
+                            continue;
+                        }
+                        double similarity = (double) shared / (queryCount + count - shared);
+                        if (similarity >= threshold) {
+                            best.add(new Match(usernames.get(id), similarity));
+                            if (best.size() > limit) {
+                                best.poll();
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        List<Match> matches = new ArrayList<>(best);
+        matches.sort(Match.RANKING);
+        List<String> results = new ArrayList<>(matches.size());
+        matches.forEach(match -> results.add(match.username));
+        return results;
+    }
+
+    // whether a username with count trigrams, sharing at most maxShared with the query, can make it into the results
+    private boolean canMatch(int maxShared, int queryCount, int count, PriorityQueue<Match> best, int limit) {
+        int shared = Math.min(maxShared, count);
+        double maxSimilarity = (double) shared / (queryCount + count - shared);
+        return maxSimilarity >= threshold && (best.size() < limit || maxSimilarity >= best.peek().similarity);
+    }
+
+    // the number of lists containing the id, 0 if one of the lists before index contains it (already scored there)
+    private static int countShared(List<TrigramPostings> lists, int index, int count, int id) {
+        for (int j = 0; j < index; j++) {
+            if (lists.get(j).contains(count, id)) {
+                return 0;
+            }
+        }
+        int shared = 1;
+        for (int j = index + 1; j < lists.size(); j++) {
+            if (lists.get(j).contains(count, id)) {
+                shared++;
+            }
+        }
+        return shared;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ids.size();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ids given out, including the gaps of renamed usernames
+    int idCount() {
+        lock.readLock().lock();
+        try {
+            return usernames.size();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // entries of all posting lists
+    int postingCount() {
+        lock.readLock().lock();
+        try {
+            return postings.values().stream().mapToInt(TrigramPostings::size).sum();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // distinct trigrams of the lower case username, padded with two blanks in front and one at the end
+    static Set<String> trigrams(String username) {
+        String padded = "  " + username.toLowerCase(Locale.ROOT) + " ";
+        Set<String> trigrams = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            trigrams.add(padded.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    // the usernames containing one trigram, split by their number of trigrams
+    private static class TrigramPostings {
+
+        private Postings[] byCount = new Postings[0];
+        private int size;
+
+        void add(int count, int id) {
+            if (count >= byCount.length) {
+                byCount = Arrays.copyOf(byCount, count + 1);
+            }
+            if (byCount[count] == null) {
+                byCount[count] = new Postings();
+            }
+            byCount[count].add(id);
+            size++;
+        }
+
+        boolean remove(int count, int id) {
+            if (count >= byCount.length || byCount[count] == null || !byCount[count].remove(id)) {
+                return false;
+            }
+            if (byCount[count].size == 0) {
+                byCount[count] = null;
+            }
+            size--;
+            return true;
+        }
+
+        boolean contains(int count, int id) {
+            return count < byCount.length && byCount[count] != null && byCount[count].contains(id);
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    // growable, sorted list of ids
+    private static class Postings {
+
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        boolean remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+            if (ids.length > 4 && size < ids.length / 4) {
+                ids = Arrays.copyOf(ids, ids.length / 2);
+            }
+            return true;
+        }
+
+        boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+    }
+
+    private static class Match {
+
+        // most similar first, then alphabetically
+        static final Comparator<Match> RANKING = Comparator.comparingDouble((Match match) -> match.similarity)
+                .reversed()
+                .thenComparing(match -> match.username);
+
+        private final String username;
+        private final double similarity;
+
+        Match(String username, double similarity) {
+            this.username = username;
+            this.similarity = similarity;
+        }
+    }
+}
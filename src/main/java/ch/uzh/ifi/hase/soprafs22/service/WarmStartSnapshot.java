@@ -0,0 +1,147 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.repository.UserTableState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Warm Start Snapshot
+ * Binary file with the in-memory state which is expensive to rebuild after a restart of the durable profile:
+ * all usernames (UsernameFilter and search indexes) and the ids of the cached users (UserCache).
+ * No tokens are written, the file holds no credentials: the TokenIndex is refilled from the database.
+ * It is written on a clean shutdown and consumed (deleted) on the next start, so a crash never brings back an old snapshot.
+ * The snapshot carries the UserTableState of the database at shutdown, the UserService only uses it if the table
+ * is still in that state. This detects every change made through the application while it was down;
+ * changes made directly with SQL are only detected if they change the count, the ids, the versions or the username
+ * lengths, so after manual SQL edits delete the snapshot (or start without users.snapshot.path).
+ * Disabled when users.snapshot.path is empty.
+ */
+@Component
+public class WarmStartSnapshot {
+
+    // "USS1", changes with the file layout: magic (int), UserTableState (count, max id, version sum,
+    // username length sum: 4 longs), username count (int) and usernames (modified UTF-8), hot user count (int) and ids (longs)
+    private static final int MAGIC = 0x55535331;
+
+    private final Logger log = LoggerFactory.getLogger(WarmStartSnapshot.class);
+    private final Path path;
+
+    public WarmStartSnapshot(@Value("${users.snapshot.path:}") String path) {
+        this.path = path.isBlank() ? null : Path.of(path);
+    }
+
+    public boolean isEnabled() {
+        return path != null;
+    }
+
+    /**
+     * Writes the snapshot into a temporary file next to the target and moves it into place,
+     * so a shutdown interrupted half way leaves no truncated snapshot behind.
+     */
+    public void write(Contents contents) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            UserTableState tableState = contents.getTableState();
+            out.writeLong(tableState.getCount());
+            out.writeLong(tableState.getMaxId());
+            out.writeLong(tableState.getVersionSum());
+            out.writeLong(tableState.getUsernameLengthSum());
+            out.writeInt(contents.getUsernames().size());
+            for (String username : contents.getUsernames()) {
+                out.writeUTF(username);
+            }
+            out.writeInt(contents.getHotUserIds().size());
+            for (long id : contents.getHotUserIds()) {
+                out.writeLong(id);
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads and deletes the snapshot.
+     *
+     * @return the contents, or null if there is no (readable) snapshot
+     */
+    public Contents consume() {
+        if (path == null || !Files.exists(path)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                log.warn("Ignoring warm start snapshot {}: unknown format", path);
+                return null;
+            }
+            UserTableState tableState = new UserTableState(in.readLong(), in.readLong(), in.readLong(), in.readLong());
+            int usernameCount = in.readInt();
+            List<String> usernames = new ArrayList<>(usernameCount);
+            for (int i = 0; i < usernameCount; i++) {
+                usernames.add(in.readUTF());
+            }
+            int hotUserCount = in.readInt();
+            List<Long> hotUserIds = new ArrayList<>(hotUserCount);
+            for (int i = 0; i < hotUserCount; i++) {
+                hotUserIds.add(in.readLong());
+            }
+            return new Contents(tableState, usernames, hotUserIds);
+        }
+        catch (IOException e) {
+            log.warn("Ignoring unreadable warm start snapshot {}", path, e);
+            return null;
+        }
+        finally {
+            delete();
+        }
+    }
+
+    private void delete() {
+        try {
+            Files.deleteIfExists(path);
+        }
+        catch (IOException e) {
+            log.warn("Could not delete warm start snapshot {}", path, e);
+        }
+    }
+
+    public static final class Contents {
+
+        private final UserTableState tableState;
+        private final Collection<String> usernames;
+        private final Collection<Long> hotUserIds;
+
+        public Contents(UserTableState tableState, Collection<String> usernames, Collection<Long> hotUserIds) {
+            this.tableState = tableState;
+            this.usernames = usernames;
+            this.hotUserIds = hotUserIds;
+        }
+
+        // the state of the user table the usernames belong to
+        public UserTableState getTableState() {
+            return tableState;
+        }
+
+        public Collection<String> getUsernames() {
+            return usernames;
+        }
+
+        public Collection<Long> getHotUserIds() {
+            return hotUserIds;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package ch.uzh.ifi.hase.soprafs22.changelog;
+
+import ch.uzh.ifi.hase.soprafs22.service.UserChangeEvent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserChangeLogTest {
+
+    // smallest segment size, a few hundred records roll over several segments
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void replay_afterAppend_sameEventsInOrder() throws IOException {
+        UserChangeLog changeLog = open();
+        changeLog.append(UserChangeEvent.created(1L, "chlo\u00e9", Boolean.FALSE, LocalDate.of(2022, 3, 1)), 1000L);
+        changeLog.append(UserChangeEvent.status(1L, true), 2000L);
+        changeLog.append(UserChangeEvent.username(1L, "anna"), 3000L);
+        changeLog.append(UserChangeEvent.birthday(1L, LocalDate.of(1960, 5, 17)), 4000L);
+        changeLog.append(UserChangeEvent.birthday(1L, null), 5000L);
+
+        List<UserChangeLog.Entry> entries = new ArrayList<>();
+        long next = changeLog.replay(0, entries::add);
+
+        assertEquals(5, next);
+        assertEquals(5, entries.size());
+        UserChangeEvent created = entries.get(0).getEvent();
+        assertEquals(UserChangeEvent.Type.CREATED, created.getType());
+        assertEquals("chlo\u00e9", created.getUsername());
+        assertEquals(Boolean.FALSE, created.getStatus());
+        assertEquals(LocalDate.of(2022, 3, 1), created.getCreationDate());
+        assertEquals(Boolean.TRUE, entries.get(1).getEvent().getStatus());
+        assertEquals("anna", entries.get(2).getEvent().getUsername());
+        // before 1970: negative epoch day
+        assertEquals(LocalDate.of(1960, 5, 17), entries.get(3).getEvent().getBirthday());
+        assertNull(entries.get(4).getEvent().getBirthday());
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(i, entries.get(i).getSequence());
+            assertEquals(1L, entries.get(i).getEvent().getId());
+            assertEquals((i + 1) * 1000L, entries.get(i).getTimestamp());
+        }
+    }
+
+    @Test
+    public void append_segmentFull_rollsToNextSegment() throws IOException {
+        UserChangeLog changeLog = open();
+        for (long id = 1; id <= 1000; id++) {
+            changeLog.append(UserChangeEvent.username(id, "user" + id), id);
+        }
+
+        List<Long> ids = new ArrayList<>();
+        changeLog.replay(0, entry -> ids.add(entry.getEvent().getId()));
+
+        assertTrue(changeLog.getSegmentCount() > 1);
+        assertEquals(1000, ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(i + 1L, ids.get(i));
+        }
+    }
+
+    @Test
+    public void replay_fromSequence_onlyLaterRecords() throws IOException {
+        UserChangeLog changeLog = open();
+        for (long id = 1; id <= 1000; id++) {
+            changeLog.append(UserChangeEvent.status(id, true), id);
+        }
+
+        List<Long> sequences = new ArrayList<>();
+        long next = changeLog.replay(990, entry -> sequences.add(entry.getSequence()));
+
+        assertEquals(1000, next);
+        assertEquals(List.of(990L, 991L, 992L, 993L, 994L, 995L, 996L, 997L, 998L, 999L), sequences);
+        // nothing new since then
+        assertEquals(1000, changeLog.replay(next, entry -> fail("no record expected")));
+    }
+
+    @Test
+    public void open_existingLog_continuesSequence() throws IOException {
+        UserChangeLog changeLog = open();
+        for (long id = 1; id <= 500; id++) {
+            changeLog.append(UserChangeEvent.status(id, true), id);
+        }
+        changeLog.close();
+
+        UserChangeLog reopened = open();
+        assertEquals(500, reopened.getNextSequence());
+        assertEquals(500, reopened.append(UserChangeEvent.status(501L, false), 501L));
+
+        List<Long> ids = new ArrayList<>();
+        reopened.replay(0, entry -> ids.add(entry.getEvent().getId()));
+        assertEquals(501, ids.size());
+        assertEquals(501L, ids.get(500));
+    }
+
+    @Test
+    public void open_tornLastRecord_dropped() throws IOException {
+        UserChangeLog changeLog = open();
+        changeLog.append(UserChangeEvent.status(1L, true), 1L);
+        changeLog.append(UserChangeEvent.status(2L, true), 2L);
+        changeLog.close();
+
+        // a record whose body did not reach the disk: length and checksum do not match the (zero) body
+        Path segment = directory.resolve("00000000000000000000.log");
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int end = UserChangeLog.scan(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), body -> { });
+            ByteBuffer torn = ByteBuffer.allocate(8).putInt(20).putInt(0x12345678).flip();
+            channel.write(torn, end);
+        }
+
+        UserChangeLog reopened = open();
+        assertEquals(2, reopened.getNextSequence());
+        reopened.append(UserChangeEvent.username(3L, "after"), 3L);
+
+        List<UserChangeLog.Entry> entries = new ArrayList<>();
+        reopened.replay(0, entries::add);
+        assertEquals(3, entries.size());
+        assertEquals("after", entries.get(2).getEvent().getUsername());
+    }
+
+    @Test
+    public void open_zeroGapBeforeOldRecords_oldRecordsNotReplayedAgain() throws IOException {
+        UserChangeLog changeLog = open();
+        for (long id = 1; id <= 10; id++) {
+            changeLog.append(UserChangeEvent.status(id, true), 1L);
+        }
+        changeLog.close();
+
+        // a crash of the machine lost the records 3 to 5, the records 6 to 10 after them reached the disk
+        Path segment = directory.resolve("00000000000000000000.log");
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            List<Integer> starts = new ArrayList<>();
+            UserChangeLog.scan(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                    body -> starts.add(body.position() - 8));
+            channel.write(ByteBuffer.allocate(starts.get(5) - starts.get(2)), starts.get(2));
+        }
+
+        UserChangeLog reopened = open();
+        assertEquals(2, reopened.getNextSequence());
+        // records of the same size as the old ones: the last append ends where the old record 8 starts
+        for (long id = 11; id <= 15; id++) {
+            reopened.append(UserChangeEvent.status(id, false), 1L);
+        }
+
+        List<Long> ids = new ArrayList<>();
+        assertEquals(7, reopened.replay(0, entry -> ids.add(entry.getEvent().getId())));
+        assertEquals(List.of(1L, 2L, 11L, 12L, 13L, 14L, 15L), ids);
+        reopened.close();
+
+        // nor after the next start
+        List<Long> idsAfterRestart = new ArrayList<>();
+        UserChangeLog restarted = open();
+        assertEquals(7, restarted.getNextSequence());
+        restarted.replay(0, entry -> idsAfterRestart.add(entry.getEvent().getId()));
+        assertEquals(ids, idsAfterRestart);
+    }
+
+    @Test
+    public void append_disabled_noop() throws IOException {
+        UserChangeLog changeLog = new UserChangeLog("", SEGMENT_SIZE, 1000);
+        changeLog.open();
+
+        assertFalse(changeLog.isEnabled());
+        assertEquals(-1, changeLog.append(UserChangeEvent.status(1L, true), 1L));
+        assertEquals(0, changeLog.replay(0, entry -> fail("no record expected")));
+    }
+
+    private UserChangeLog open() throws IOException {
+        UserChangeLog changeLog = new UserChangeLog(directory.toString(), SEGMENT_SIZE, 1000);
+        changeLog.open();
+        return changeLog;
+    }
+}
@@ -2,11 +2,17 @@ package ch.uzh.ifi.hase.soprafs22.controller;
 
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.feed.UserChangeFeed;
 import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs22.service.UserBatchResult;
 import ch.uzh.ifi.hase.soprafs22.service.UserService;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.hibernate.exception.ConstraintViolationException;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
@@ -14,6 +20,10 @@ import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -23,16 +33,28 @@ import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.mockito.BDDMockito.given;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -51,22 +73,25 @@ public class UserControllerTest {
     @Autowired
     private MockMvc mockMvc;
 
+    private static final MediaType CBOR = MediaType.parseMediaType("application/cbor");
+
     @MockBean
     private UserService userService;
+
+    @MockBean
+    private UserChangeFeed userChangeFeed;
     /**
      * POST -> add User -> 201
      */
     @Test
     public void givenUsers_whenGetUsers_thenReturnJsonArray() throws Exception {
         // given
-        User user = new User();
-        user.setUsername("firstname@lastname");
-        user.setStatus(Boolean.FALSE);
+        UserSummary user = new UserSummary(1L, "firstname@lastname", Boolean.FALSE, null, null, 0L);
 
-        List<User> allUsers = Collections.singletonList(user);
+        List<UserSummary> allUsers = Collections.singletonList(user);
 
         // this mocks the UserService -> we define above what the userService should return when getUsers() is called
-        given(userService.getUsers()).willReturn(allUsers);
+        given(userService.getUsers(Mockito.anyLong(), Mockito.anyInt())).willReturn(new SliceImpl<>(allUsers));
 
         // when
         MockHttpServletRequestBuilder getRequest = get("/users").contentType(MediaType.APPLICATION_JSON);
@@ -75,7 +100,189 @@ public class UserControllerTest {
         mockMvc.perform(getRequest).andExpect(status().isOk())
                 .andExpect(jsonPath("$", hasSize(1)))
                 .andExpect(jsonPath("$[0].username", is(user.getUsername())))
-                .andExpect(jsonPath("$[0].status", is(user.getStatus())));
+                .andExpect(jsonPath("$[0].status", is(user.getStatus())))
+                .andExpect(header().doesNotExist(HttpHeaders.LINK));
+    }
+
+    /**
+     * GET -> Users -> first page, the Link header points to the next page
+     */
+    @Test
+    public void givenMoreUsers_whenGetUsers_thenReturnNextCursor() throws Exception {
+        // given
+        UserSummary user = new UserSummary(7L, "firstname@lastname", Boolean.FALSE, null, null, 0L);
+
+        // one user on this page, but there are more
+        given(userService.getUsers(0L, 1)).willReturn(new SliceImpl<>(Collections.singletonList(user), PageRequest.of(0, 1), true));
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users?limit=1").contentType(MediaType.APPLICATION_JSON);
+
+        // then
+        mockMvc.perform(getRequest).andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(header().string(HttpHeaders.LINK, containsString("after=7")))
+                .andExpect(header().string(HttpHeaders.LINK, containsString("rel=\"next\"")));
+    }
+
+    /**
+     * GET -> Users with Accept: application/cbor -> the same page, CBOR encoded
+     */
+    @Test
+    public void givenUsers_whenGetUsersAsCbor_thenReturnCbor() throws Exception {
+        // given
+        UserSummary user = new UserSummary(1L, "firstname@lastname", Boolean.FALSE, LocalDate.of(2022, 3, 1), null, 0L);
+        given(userService.getUsers(Mockito.anyLong(), Mockito.anyInt())).willReturn(new SliceImpl<>(Collections.singletonList(user)));
+
+        // when
+        byte[] body = mockMvc.perform(get("/users").accept(CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(CBOR))
+                .andExpect(header().stringValues(HttpHeaders.VARY, hasItem(HttpHeaders.ACCEPT)))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        // then -> same fields as the JSON representation, dates as ISO strings
+        JsonNode users = new ObjectMapper(new CBORFactory()).readTree(body);
+        assertEquals(1, users.size());
+        assertEquals("firstname@lastname", users.get(0).get("username").asText());
+        assertEquals("2022-03-01", users.get(0).get("creationDate").asText());
+    }
+
+    /**
+     * PUT -> birthday as a CBOR request body -> 204
+     */
+    @Test
+    public void putRequest_birthdayAsCbor_updated() throws Exception {
+        // given
+        byte[] body = new ObjectMapper(new CBORFactory()).writeValueAsBytes("2000-01-31");
+
+        // when
+        mockMvc.perform(put("/users/1/birthday").contentType(CBOR).content(body))
+                .andExpect(status().isNoContent());
+
+        // then
+        Mockito.verify(userService).updateBirthday(1L, LocalDate.of(2000, 1, 31));
+    }
+
+    /**
+     * PUT -> username as a JSON string -> 204, stored without the quotes
+     */
+    @Test
+    public void putRequest_usernameAsJson_updated() throws Exception {
+        // when
+        mockMvc.perform(put("/users/1/username").contentType(MediaType.APPLICATION_JSON).content("\"newName\""))
+                .andExpect(status().isNoContent());
+
+        // then
+        Mockito.verify(userService).updateUsername(1L, "newName");
+    }
+
+    /**
+     * PUT -> username as a CBOR request body -> 204, the CBOR framing is not part of the username
+     */
+    @Test
+    public void putRequest_usernameAsCbor_updated() throws Exception {
+        // given
+        byte[] body = new ObjectMapper(new CBORFactory()).writeValueAsBytes("newName");
+
+        // when
+        mockMvc.perform(put("/users/1/username").contentType(CBOR).content(body))
+                .andExpect(status().isNoContent());
+
+        // then
+        Mockito.verify(userService).updateUsername(1L, "newName");
+    }
+
+    /**
+     * GET -> Users, user by id and by username -> no token in any body (only signup and login hand out the own token)
+     */
+    @Test
+    public void givenUsers_whenGetUsers_thenNoTokenInBody() throws Exception {
+        // given
+        UserSummary user = new UserSummary(1L, "firstname@lastname", Boolean.FALSE, LocalDate.of(2022, 3, 1), null, 0L);
+        given(userService.getUsers(Mockito.anyLong(), Mockito.anyInt())).willReturn(new SliceImpl<>(Collections.singletonList(user)));
+        given(userService.getUserSummaryById(1L)).willReturn(user);
+        given(userService.getUserSummaryByUsername("firstname@lastname")).willReturn(user);
+
+        // when/then
+        mockMvc.perform(get("/users")).andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].token").doesNotExist())
+                .andExpect(content().string(not(containsString("token"))));
+        mockMvc.perform(get("/users/1")).andExpect(status().isOk())
+                .andExpect(jsonPath("$.token").doesNotExist())
+                .andExpect(content().string(not(containsString("token"))));
+        mockMvc.perform(get("/users_name/firstname@lastname")).andExpect(status().isOk())
+                .andExpect(jsonPath("$.token").doesNotExist())
+                .andExpect(content().string(not(containsString("token"))));
+    }
+
+    /**
+     * GET -> Users search -> the usernames starting with the prefix
+     */
+    @Test
+    public void givenUsers_whenSearchUsernames_thenReturnMatches() throws Exception {
+        // given
+        given(userService.searchUsernames("an", 5)).willReturn(Arrays.asList("andreas", "Anna"));
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users/search?prefix=an&limit=5");
+
+        // then
+        mockMvc.perform(getRequest).andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0]", is("andreas")))
+                .andExpect(jsonPath("$[1]", is("Anna")));
+    }
+
+    /**
+     * GET -> Users fuzzy search -> similar usernames, most similar first
+     */
+    @Test
+    public void givenUsers_whenSearchUsernamesFuzzy_thenReturnRanked() throws Exception {
+        // given
+        given(userService.searchUsernamesFuzzy("jonh", 10)).willReturn(Arrays.asList("john", "johnny"));
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users/search/fuzzy?q=jonh");
+
+        // then
+        mockMvc.perform(getRequest).andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0]", is("john")));
+    }
+
+    /**
+     * GET -> Users export -> one JSON document per line
+     */
+    @Test
+    public void givenUsers_whenExportUsers_thenStreamNdjson() throws Exception {
+        // given
+        UserSummary first = new UserSummary(1L, "first", Boolean.FALSE, null, null, 0L);
+        UserSummary second = new UserSummary(2L, "second", Boolean.TRUE, null, null, 0L);
+
+        // the mocked service hands both users to the sink of the controller
+        Mockito.doAnswer(invocation -> {
+            Consumer<UserSummary> sink = invocation.getArgument(0);
+            sink.accept(first);
+            sink.accept(second);
+            return null;
+        }).when(userService).exportUsers(Mockito.any());
+
+        // when -> the body is written asynchronously, with the timeout of the export (users.export.timeout-ms)
+        MvcResult result = mockMvc.perform(get("/users/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        assertEquals(600000, result.getRequest().getAsyncContext().getTimeout());
+
+        // then
+        String body = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andReturn().getResponse().getContentAsString();
+        String[] lines = body.split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains("\"username\":\"first\""));
+        assertTrue(lines[1].contains("\"username\":\"second\""));
     }
 
     /**
@@ -93,6 +300,7 @@ public class UserControllerTest {
         UserPostDTO userPostDTO = new UserPostDTO();
         userPostDTO.setUsername("testUsername");
 
+        given(userService.hashPassword(Mockito.any())).willReturn(CompletableFuture.completedFuture("hash"));
         given(userService.createUser(Mockito.any())).willReturn(user);
 
         // when/then -> do the request + validate the result
@@ -100,9 +308,13 @@ public class UserControllerTest {
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(asJsonString(userPostDTO));
 
-        // then
-        mockMvc.perform(postRequest)
+        // then -> the password is hashed asynchronously, under the default async timeout (not the one of the export)
+        MvcResult result = mockMvc.perform(postRequest).andExpect(request().asyncStarted()).andReturn();
+        assertNotEquals(600000, result.getRequest().getAsyncContext().getTimeout());
+        mockMvc.perform(asyncDispatch(result))
                 .andExpect(status().isCreated())
+                .andExpect(header().string("X-Auth-Token", "1"))
+                .andExpect(jsonPath("$.token").doesNotExist())
                 .andExpect(jsonPath("$.id", is(user.getId().intValue())))
                 .andExpect(jsonPath("$.username", is(user.getUsername())))
                 .andExpect(jsonPath("$.status", is(user.getStatus())));
@@ -142,6 +354,7 @@ public class UserControllerTest {
         userPostDTO.setUsername("testUsername");
         userPostDTO.setPassword("Password");
 
+        given(userService.hashPassword(Mockito.any())).willReturn(CompletableFuture.completedFuture("hash"));
         given(userService.createUser(Mockito.any())).willThrow(new ResponseStatusException(HttpStatus.CONFLICT));
 
         // when/then -> do the request + validate the result
@@ -150,12 +363,38 @@ public class UserControllerTest {
                 .content(asJsonString(userPostDTO));
 
         // then
-        MvcResult result = mockMvc.perform(postRequest).andReturn();
+        MvcResult result = mockMvc.perform(asyncDispatch(mockMvc.perform(postRequest).andReturn())).andReturn();
 
         // test the http status of the response
         assertEquals(HttpStatus.CONFLICT.value(), result.getResponse().getStatus());
     }
 
+    @Test
+    public void postRequest_constraintViolations_onlyUsernameIsTaken() throws Exception {
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setUsername("testUsername");
+        userPostDTO.setPassword("Password");
+        given(userService.hashPassword(Mockito.any())).willReturn(CompletableFuture.completedFuture("hash"));
+
+        // two signups raced past the username check
+        given(userService.createUser(Mockito.any())).willThrow(new DataIntegrityViolationException("could not execute statement",
+                new ConstraintViolationException("unique", new SQLException(), "PUBLIC.UK_USER_USERNAME_INDEX_2")));
+        MvcResult taken = mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON).content(asJsonString(userPostDTO)))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(taken))
+                .andExpect(status().isConflict())
+                .andExpect(content().string("This username is already taken."));
+
+        // any other constraint (here a token collision) does not blame the username
+        given(userService.createUser(Mockito.any())).willThrow(new DataIntegrityViolationException("could not execute statement",
+                new ConstraintViolationException("unique", new SQLException(), "PUBLIC.UK_TOKEN_INDEX_2")));
+        MvcResult other = mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON).content(asJsonString(userPostDTO)))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(other))
+                .andExpect(status().isInternalServerError())
+                .andExpect(content().string(not(containsString("username"))));
+    }
+
     /**
      * Test putRequest to users, http-method, http-status, content-type
      * update user profile -> 204 No Content
@@ -213,7 +452,7 @@ public class UserControllerTest {
         UserPostDTO userPostDTO = new UserPostDTO();
         userPostDTO.setUsername("testUsername");
 
-        given(userService.createUser(Mockito.any())).willReturn(user);
+        given(userService.getUserSummaryById(1L)).willReturn(UserSummary.of(user));
 
         // when/then -> do the request + validate the result
         MockHttpServletRequestBuilder getRequest = get("/users/1")
@@ -257,7 +496,8 @@ public class UserControllerTest {
         UserPostDTO userPostDTO = new UserPostDTO();
         userPostDTO.setUsername("testUsername");
 
-        Mockito.doThrow(new ResponseStatusException(HttpStatus.NOT_FOUND)).when(userService).getUserById(Mockito.anyLong());
+        // the mocked service finds no user
+        given(userService.getUserSummaryById(Mockito.anyLong())).willReturn(null);
 
         // when/then -> do the request + validate the result
         MockHttpServletRequestBuilder getRequest = get("/users/23")
@@ -282,5 +522,169 @@ public class UserControllerTest {
         assertEquals(MediaType.APPLICATION_JSON.toString(), result.getRequest().getContentType());
     }
 
+    /**
+     * Login with the token of the user instead of the password -> 200 and the token is sent back
+     * @throws Exception
+     */
+    @Test
+    public void putRequest_loginWithToken_success() throws Exception {
+        // given
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("testUsername");
+        user.setPassword("Password");
+        user.setToken("token-1");
+        user.setStatus(Boolean.FALSE);
+
+        given(userService.getUserIdByToken("token-1")).willReturn(1L);
+        given(userService.getUserByUsername("testUsername")).willReturn(user);
+
+        // when -> no body, only the token
+        MockHttpServletRequestBuilder putRequest = put("/users_name/testUsername")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer token-1");
+
+        // then
+        MvcResult result = mockMvc.perform(putRequest).andExpect(request().asyncStarted()).andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.username", is(user.getUsername())))
+                .andExpect(jsonPath("$.token").doesNotExist())
+                .andExpect(header().string("X-Auth-Token", "token-1"));
+
+        // the password was not needed
+        Mockito.verify(userService, Mockito.never()).checkPassword(Mockito.any(), Mockito.any());
+    }
+
+    /**
+     * Login with a wrong password -> 409 Conflict
+     * @throws Exception
+     */
+    @Test
+    public void putRequest_loginWrongPassword_conflict() throws Exception {
+        // given
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("testUsername");
+        user.setPassword("hash");
+        user.setToken("token-1");
+        user.setStatus(Boolean.FALSE);
+
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setUsername("testUsername");
+        userPostDTO.setPassword("wrong");
 
-}
\ No newline at end of file
+        given(userService.getUserByUsername("testUsername")).willReturn(user);
+        given(userService.checkPassword(user, "wrong")).willReturn(CompletableFuture.completedFuture(Boolean.FALSE));
+
+        // when
+        MockHttpServletRequestBuilder putRequest = put("/users_name/testUsername")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(userPostDTO));
+
+        // then
+        MvcResult result = mockMvc.perform(putRequest).andExpect(request().asyncStarted()).andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isConflict());
+    }
+
+    /**
+     * Request with an unknown token -> 401 Unauthorized
+     * @throws Exception
+     */
+    @Test
+    public void getRequest_invalidToken_unauthorized() throws Exception {
+        given(userService.getUserIdByToken(Mockito.anyString())).willReturn(null);
+
+        MockHttpServletRequestBuilder getRequest = get("/users/1")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer unknown");
+
+        MvcResult result = mockMvc.perform(getRequest).andReturn();
+
+        assertEquals(HttpStatus.UNAUTHORIZED.value(), result.getResponse().getStatus());
+    }
+
+    /**
+     * POST -> users/batch -> one result per submitted user
+     * @throws Exception
+     */
+    @Test
+    public void postRequest_usersBatch_perItemResults() throws Exception {
+        // given
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("first");
+        user.setToken("1");
+        user.setStatus(Boolean.FALSE);
+
+        UserPostDTO first = new UserPostDTO();
+        first.setUsername("first");
+        first.setPassword("Password");
+        UserPostDTO second = new UserPostDTO();
+        second.setUsername("taken");
+        second.setPassword("Password");
+
+        given(userService.hashPasswords(Mockito.anyList()))
+                .willReturn(CompletableFuture.completedFuture(Arrays.asList("hash1", "hash2")));
+        given(userService.createUsers(Mockito.anyList())).willReturn(Arrays.asList(
+                UserBatchResult.created(user),
+                UserBatchResult.rejected(HttpStatus.CONFLICT, "taken")));
+
+        // when
+        MockHttpServletRequestBuilder postRequest = post("/users/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(Arrays.asList(first, second)));
+
+        // then
+        MvcResult result = mockMvc.perform(postRequest).andExpect(request().asyncStarted()).andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].status", is(201)))
+                .andExpect(jsonPath("$[0].user.username", is("first")))
+                .andExpect(jsonPath("$[1].index", is(1)))
+                .andExpect(jsonPath("$[1].status", is(409)))
+                .andExpect(jsonPath("$[1].error", is("taken")));
+    }
+
+    /**
+     * GET -> users/{id} again with the ETag of the first response -> 304 Not Modified
+     * @throws Exception
+     */
+    @Test
+    public void getRequest_users_userId_notModified() throws Exception {
+        // given
+        UserSummary user = new UserSummary(1L, "testUsername", Boolean.TRUE, null, null, 3L);
+
+        given(userService.getUserSummaryById(1L)).willReturn(user);
+
+        // when -> first request
+        String eTag = mockMvc.perform(get("/users/1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.username", is(user.getUsername())))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotNull(eTag);
+
+        // then -> same user, same ETag
+        mockMvc.perform(get("/users/1").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+
+        // then -> the status changed, the old ETag does not match anymore
+        given(userService.getUserSummaryById(1L)).willReturn(user.withStatus(Boolean.FALSE));
+        mockMvc.perform(get("/users/1").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk());
+    }
+
+    /**
+     * GET -> users with an unchanged collection version -> 304 without loading the users
+     * @throws Exception
+     */
+    @Test
+    public void getRequest_users_notModified() throws Exception {
+        given(userService.getUsersVersion()).willReturn("1.7");
+
+        mockMvc.perform(get("/users").header(HttpHeaders.IF_NONE_MATCH, "\"1.7.0.50\""))
+                .andExpect(status().isNotModified());
+
+        Mockito.verify(userService, Mockito.never()).getUsers(Mockito.anyLong(), Mockito.anyInt());
+    }
+}
@@ -0,0 +1,156 @@
+package ch.uzh.ifi.hase.soprafs22.datasource;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.service.TokenIndex;
+import ch.uzh.ifi.hase.soprafs22.service.UserCache;
+import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Routing between the primary (the usual in-memory H2 database) and a second in-memory H2 database standing in for the replica.
+ * There is no replication between the two: the replica gets the schema of the primary but none of its rows,
+ * so whatever a read returns shows where it was routed to.
+ */
+@SpringBootTest(properties = {
+        "users.datasource.replica.url=" + ReadWriteRoutingIntegrationTest.REPLICA_URL,
+        "users.datasource.replica.lag-query=SELECT LAG_MILLIS FROM REPLICA_LAG",
+        "users.datasource.replica.max-lag-ms=1000",
+        "users.datasource.replica.check-interval-ms=3600000"
+})
+public class ReadWriteRoutingIntegrationTest {
+
+    static final String REPLICA_URL = "jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1";
+
+    @Qualifier("userRepository")
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private ReplicaLagMonitor replicaLagMonitor;
+
+    @Autowired
+    private UserCache userCache;
+
+    @Autowired
+    private TokenIndex tokenIndex;
+
+    @Qualifier("primaryDataSource")
+    @Autowired
+    private DataSource primaryDataSource;
+
+    private JdbcTemplate replica;
+
+    @BeforeEach
+    public void setup() {
+        userRepository.deleteAll();
+
+        // empty copy of the schema of the primary, plus the table the lag query reads
+        replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+        replica.execute("DROP ALL OBJECTS");
+        for (String statement : new JdbcTemplate(primaryDataSource).queryForList("SCRIPT NODATA", String.class)) {
+            if (!statement.startsWith("--") && !statement.startsWith("CREATE USER")) {
+                replica.execute(statement);
+            }
+        }
+        replica.execute("CREATE TABLE REPLICA_LAG(LAG_MILLIS BIGINT)");
+        replica.execute("INSERT INTO REPLICA_LAG VALUES (0)");
+        replicaLagMonitor.check();
+    }
+
+    @Test
+    public void readOnlyTransaction_replica_writeOnPrimary() {
+        User created = userService.createUser(newUser("routedUser"));
+
+        assertTrue(replicaLagMonitor.isReplicaAvailable());
+        assertEquals(1, new JdbcTemplate(primaryDataSource).queryForObject("SELECT COUNT(*) FROM USER", Integer.class));
+        assertTrue(userService.getUsers(0, 10).getContent().isEmpty());
+        assertEquals(0, replica.queryForObject("SELECT COUNT(*) FROM USER", Integer.class));
+    }
+
+    @Test
+    public void profileLookup_replicaBehind_foundOnPrimary() {
+        User created = userService.createUser(newUser("profileUser"));
+
+        assertTrue(replicaLagMonitor.isReplicaAvailable());
+        // GET /users/{id} and /users_name/{username} right after the signup
+        assertEquals("profileUser", userService.getUserSummaryById(created.getId()).getUsername());
+        assertEquals(created.getId(), userService.getUserSummaryByUsername("profileUser").getId());
+        assertNull(userService.getUserSummaryById(created.getId() + 1000));
+    }
+
+    @Test
+    public void signup_replicaBehind_listVersionChangesAgainAfterMaxLag() throws InterruptedException {
+        userService.createUser(newUser("polledUser"));
+        String afterCommit = userService.getUsersVersion();
+
+        // a poll right now gets the new version with a page from the replica, which does not have the user yet
+        assertTrue(userService.getUsers(0, 10).getContent().isEmpty());
+        // max-lag-ms later the version changes once more, so that poll does not keep the stale page under its ETag
+        long deadline = System.currentTimeMillis() + 5000;
+        while (afterCommit.equals(userService.getUsersVersion()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertNotEquals(afterCommit, userService.getUsersVersion());
+    }
+
+    @Test
+    public void signupThenLogin_replicaBehind_readsFromPrimary() {
+        // the replica is "available" (lag 0 <= max-lag-ms) but does not have the new user yet
+        User created = userService.createUser(newUser("freshUser"));
+        userCache.evict(created.getId(), created.getUsername());
+        tokenIndex.clear();
+
+        assertTrue(replicaLagMonitor.isReplicaAvailable());
+        // login, token authentication and the existence check of the updates
+        assertEquals(created.getId(), userService.getUserByUsername("freshUser").getId());
+        assertEquals(created.getId(), userService.getUserIdByToken(created.getToken()));
+        assertDoesNotThrow(() -> userService.existsById(created.getId()));
+        // status toggle: its own lookup runs outside of a service transaction
+        assertDoesNotThrow(() -> userService.updateStatus(created.getId()));
+    }
+
+    @Test
+    public void replicaLagging_readsFromPrimary() {
+        User created = userService.createUser(newUser("laggingUser"));
+        replica.update("UPDATE REPLICA_LAG SET LAG_MILLIS = 5000");
+
+        replicaLagMonitor.check();
+
+        assertFalse(replicaLagMonitor.isReplicaAvailable());
+        assertEquals(5000, replicaLagMonitor.getLagMillis());
+        assertEquals(1, userService.getUsers(0, 10).getContent().size());
+        assertEquals("laggingUser", userService.getUserById(created.getId()).getUsername());
+    }
+
+    @Test
+    public void replicaCheckFails_readsFromPrimary() {
+        userService.createUser(newUser("unreachableUser"));
+        replica.execute("DROP TABLE REPLICA_LAG");
+
+        replicaLagMonitor.check();
+
+        assertFalse(replicaLagMonitor.isReplicaAvailable());
+        assertEquals(1, userService.getUsers(0, 10).getContent().size());
+    }
+
+    private static User newUser(String username) {
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword("hashed");
+        return user;
+    }
+}
@@ -0,0 +1,157 @@
+package ch.uzh.ifi.hase.soprafs22.feed;
+
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserChangeDTO;
+import ch.uzh.ifi.hase.soprafs22.service.UserChangeEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserChangeFeedTest {
+
+    // runs the drain tasks only when the test says so, a "slow" client is one whose tasks did not run yet
+    private final ManualExecutor dispatcher = new ManualExecutor();
+
+    @Test
+    public void onUserChange_deliveredWithSequenceId() {
+        UserChangeFeed feed = new UserChangeFeed(8, 10, 60000, 16, dispatcher);
+        RecordingEmitter emitter = new RecordingEmitter();
+        feed.register(emitter, null);
+
+        feed.onUserChange(UserChangeEvent.status(1L, true));
+        feed.onUserChange(UserChangeEvent.username(2L, "renamed"));
+        dispatcher.runAll();
+
+        assertEquals(List.of("id:1\nevent:status\ndata:", "id:2\nevent:username\ndata:"), emitter.events);
+        assertEquals(2, emitter.payloads.size());
+        assertEquals(Boolean.TRUE, emitter.payloads.get(0).getStatus());
+        assertEquals("renamed", emitter.payloads.get(1).getUsername());
+    }
+
+    @Test
+    public void onUserChange_bufferFull_dropsBufferAndResyncs() {
+        UserChangeFeed feed = new UserChangeFeed(2, 10, 60000, 16, dispatcher);
+        RecordingEmitter slow = new RecordingEmitter();
+        feed.register(slow, null);
+
+        // 3 changes into a buffer of 2 before the subscriber is drained
+        feed.onUserChange(UserChangeEvent.status(1L, true));
+        feed.onUserChange(UserChangeEvent.status(1L, false));
+        feed.onUserChange(UserChangeEvent.status(1L, true));
+        dispatcher.runAll();
+        // the following changes are delivered again
+        feed.onUserChange(UserChangeEvent.status(2L, true));
+        dispatcher.runAll();
+
+        assertEquals(List.of("event:resync\ndata:", "id:4\nevent:status\ndata:"), slow.events);
+        assertEquals(1, feed.getResyncCount());
+    }
+
+    @Test
+    public void register_lastEventId_replaysMissedChanges() {
+        UserChangeFeed feed = new UserChangeFeed(8, 10, 60000, 16, dispatcher);
+        feed.onUserChange(UserChangeEvent.status(1L, true));
+        feed.onUserChange(UserChangeEvent.status(2L, true));
+        feed.onUserChange(UserChangeEvent.status(3L, true));
+
+        RecordingEmitter reconnected = new RecordingEmitter();
+        feed.register(reconnected, 1L);
+        dispatcher.runAll();
+
+        assertEquals(List.of("id:2\nevent:status\ndata:", "id:3\nevent:status\ndata:"), reconnected.events);
+    }
+
+    @Test
+    public void register_lastEventIdNoLongerKept_resyncs() {
+        UserChangeFeed feed = new UserChangeFeed(8, 10, 60000, 2, dispatcher);
+        for (long id = 1; id <= 5; id++) {
+            feed.onUserChange(UserChangeEvent.status(id, true));
+        }
+
+        RecordingEmitter reconnected = new RecordingEmitter();
+        // change 2 is missing (only 4 and 5 are kept)
+        feed.register(reconnected, 1L);
+        RecordingEmitter restarted = new RecordingEmitter();
+        // an id of a previous run of the application
+        feed.register(restarted, 99L);
+        dispatcher.runAll();
+
+        assertEquals(List.of("event:resync\ndata:"), reconnected.events);
+        assertEquals(List.of("event:resync\ndata:"), restarted.events);
+    }
+
+    @Test
+    public void register_tooManySubscribers_throwsServiceUnavailable() {
+        UserChangeFeed feed = new UserChangeFeed(8, 1, 60000, 16, dispatcher);
+        feed.register(new RecordingEmitter(), null);
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> feed.register(new RecordingEmitter(), null));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exception.getStatus());
+    }
+
+    @Test
+    public void onUserChange_clientGone_subscriberRemoved() {
+        UserChangeFeed feed = new UserChangeFeed(8, 10, 60000, 16, dispatcher);
+        RecordingEmitter gone = new RecordingEmitter();
+        gone.failing = true;
+        feed.register(gone, null);
+
+        feed.onUserChange(UserChangeEvent.status(1L, true));
+        dispatcher.runAll();
+
+        assertEquals(0, feed.getSubscriberCount());
+    }
+
+    private static final class ManualExecutor implements Executor {
+
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        private void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    // keeps the text of every sent event (without the trailing blank line) and the change payloads
+    private static final class RecordingEmitter extends SseEmitter {
+
+        private final List<String> events = new ArrayList<>();
+        private final List<UserChangeDTO> payloads = new ArrayList<>();
+        private boolean failing;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (failing) {
+                throw new IOException("Broken pipe");
+            }
+            StringBuilder text = new StringBuilder();
+            for (ResponseBodyEmitter.DataWithMediaType part : builder.build()) {
+                if (part.getData() instanceof UserChangeDTO) {
+                    payloads.add((UserChangeDTO) part.getData());
+                }
+                else {
+                    text.append(part.getData());
+                }
+            }
+            events.add(text.toString().replaceAll("\n+$", ""));
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package ch.uzh.ifi.hase.soprafs22.loadtest;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * UserLoadTest
+ * End-to-end load test of the UserController endpoints: the server runs on a random port and the requests are sent
+ * at a fixed arrival rate in a configurable mix, independent of how fast the server answers.
+ * The latency of a request is measured from the time it was scheduled to be sent (not from when it was sent),
+ * so a stalled server shows up in the histograms instead of slowing down the load (no coordinated omission).
+ * Run with ./gradlew loadTest, settings as -PloadTest.<name>=<value>:
+ * - rate: requests per second (500), duration / warmup: seconds (30 / 5)
+ * - mix: weights of the endpoints (signup=5,login=10,getById=50,list=25,status=10)
+ * The report (report.txt, latency percentiles per endpoint) and the full histograms (<endpoint>.hgrm)
+ * are written to build/reports/loadtest.
+ */
+@Tag("loadtest")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class UserLoadTest {
+
+    private static final int USERS = 200;
+    private static final String PASSWORD = "Passw0rd";
+    // latencies are recorded in microseconds, up to one minute
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toMicros(1);
+
+    @LocalServerPort
+    private int port;
+
+    @Qualifier("userRepository")
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserService userService;
+
+    private final AtomicLong nextUser = new AtomicLong();
+    private final List<User> users = new ArrayList<>();
+    private final Map<String, EndpointStats> stats = new LinkedHashMap<>();
+
+    @Test
+    public void fixedRateMix() throws FileNotFoundException {
+        int rate = Integer.getInteger("loadTest.rate", 500);
+        int duration = Integer.getInteger("loadTest.duration", 30);
+        int warmup = Integer.getInteger("loadTest.warmup", 5);
+        String mix = System.getProperty("loadTest.mix", "signup=5,login=10,getById=50,list=25,status=10");
+        File reportDirectory = new File(System.getProperty("loadTest.report", "build/reports/loadtest"));
+
+        Map<String, Integer> weights = parseMix(mix);
+        weights.keySet().forEach(endpoint -> stats.put(endpoint, new EndpointStats()));
+        createUsers();
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        Random random = new Random(42);
+        String[] endpoints = weights.keySet().toArray(new String[0]);
+        int[] cumulativeWeights = new int[endpoints.length];
+        int totalWeight = 0;
+        for (int i = 0; i < endpoints.length; i++) {
+            totalWeight += weights.get(endpoints[i]);
+            cumulativeWeights[i] = totalWeight;
+        }
+
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(warmup);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(duration);
+        List<CompletableFuture<?>> requests = new ArrayList<>();
+        for (long i = 0; ; i++) {
+            long intendedStart = start + i * intervalNanos;
+            if (intendedStart >= end) {
+                break;
+            }
+            long wait = intendedStart - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            int pick = random.nextInt(totalWeight);
+            int index = 0;
+            while (cumulativeWeights[index] <= pick) {
+                index++;
+            }
+            String endpoint = endpoints[index];
+            EndpointStats endpointStats = intendedStart >= measureStart ? stats.get(endpoint) : null;
+            requests.add(client.sendAsync(newRequest(endpoint, random), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        if (endpointStats != null) {
+                            endpointStats.record(intendedStart, error == null ? response.statusCode() : 0);
+                        }
+                    }));
+        }
+        CompletableFuture.allOf(requests.toArray(new CompletableFuture[0])).exceptionally(error -> null).join();
+
+        writeReport(reportDirectory, rate, duration, warmup, mix);
+    }
+
+    // the users for login, get by id and status toggle, all with the same password (hashed once)
+    private void createUsers() {
+        userRepository.deleteAll();
+        String hashedPassword = userService.hashPassword(PASSWORD).join();
+        List<User> newUsers = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            User user = new User();
+            user.setUsername("loadTestUser" + i);
+            user.setPassword(hashedPassword);
+            newUsers.add(user);
+        }
+        userService.createUsers(newUsers).forEach(result -> users.add(result.getUser()));
+    }
+
+    private HttpRequest newRequest(String endpoint, Random random) {
+        User user = users.get(random.nextInt(users.size()));
+        switch (endpoint) {
+            case "signup":
+                return HttpRequest.newBuilder(uri("/users"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(String.format(
+                                "{\"username\":\"loadTestSignup%d\",\"password\":\"%s\"}",
+                                nextUser.getAndIncrement(), PASSWORD)))
+                        .build();
+            case "login":
+                return HttpRequest.newBuilder(uri("/users_name/" + user.getUsername()))
+                        .header("Content-Type", "application/json")
+                        .PUT(HttpRequest.BodyPublishers.ofString(String.format(
+                                "{\"username\":\"%s\",\"password\":\"%s\"}", user.getUsername(), PASSWORD)))
+                        .build();
+            case "getById":
+                return HttpRequest.newBuilder(uri("/users/" + user.getId())).build();
+            case "list":
+                return HttpRequest.newBuilder(uri("/users?limit=20")).build();
+            case "status":
+                return HttpRequest.newBuilder(uri("/users/" + user.getId()))
+                        .PUT(HttpRequest.BodyPublishers.noBody())
+                        .build();
+            default:
+                throw new IllegalArgumentException("Unknown endpoint in loadTest.mix: " + endpoint);
+        }
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String entry : mix.split(",")) {
+            String[] endpointAndWeight = entry.trim().split("=");
+            weights.put(endpointAndWeight[0], Integer.parseInt(endpointAndWeight[1]));
+        }
+        return weights;
+    }
+
+    private void writeReport(File directory, int rate, int duration, int warmup, String mix)
+            throws FileNotFoundException {
+        directory.mkdirs();
+        try (PrintStream report = new PrintStream(new File(directory, "report.txt"))) {
+            report.printf("rate %d/s, duration %ds, warm-up %ds, mix %s%n%n", rate, duration, warmup, mix);
+            report.printf("%-10s %9s %9s %9s %9s %9s %9s %9s  %s%n",
+                    "endpoint", "requests", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "errors", "by status");
+            stats.forEach((endpoint, endpointStats) -> {
+                Histogram histogram = endpointStats.histogram;
+                report.printf("%-10s %9d %9.2f %9.2f %9.2f %9.2f %9.2f %9d  %s%n", endpoint,
+                        histogram.getTotalCount(), millis(histogram, 50), millis(histogram, 90),
+                        millis(histogram, 99), millis(histogram, 99.9), histogram.getMaxValue() / 1000.0,
+                        endpointStats.getErrors(), endpointStats.getStatusCounts());
+            });
+        }
+        for (Map.Entry<String, EndpointStats> entry : stats.entrySet()) {
+            try (PrintStream histogramFile = new PrintStream(new File(directory, entry.getKey() + ".hgrm"))) {
+                entry.getValue().histogram.outputPercentileDistribution(histogramFile, 1000.0);
+            }
+        }
+        System.out.printf("load test report written to %s%n", directory.getAbsolutePath());
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    // latency histogram and response status counts of one endpoint, status 0 = no response
+    private static class EndpointStats {
+
+        private final Histogram histogram = new ConcurrentHistogram(HIGHEST_LATENCY, 3);
+        private final Map<Integer, LongAdder> statusCounts = new ConcurrentHashMap<>();
+
+        void record(long intendedStartNanos, int status) {
+            long latencyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedStartNanos);
+            histogram.recordValue(Math.min(latencyMicros, HIGHEST_LATENCY));
+            statusCounts.computeIfAbsent(status, key -> new LongAdder()).increment();
+        }
+
+        long getErrors() {
+            return statusCounts.entrySet().stream()
+                    .filter(entry -> entry.getKey() < 200 || entry.getKey() >= 400)
+                    .mapToLong(entry -> entry.getValue().sum())
+                    .sum();
+        }
+
+        Map<Integer, Long> getStatusCounts() {
+            Map<Integer, Long> counts = new TreeMap<>();
+            statusCounts.forEach((status, count) -> counts.put(status, count.sum()));
+            return counts;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package ch.uzh.ifi.hase.soprafs22.monitoring;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.service.UserCache;
+import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * The X-Query-Count header of the query statistics mode, used to pin the number of queries of an endpoint.
+ */
+@SpringBootTest(properties = "users.query-stats.enabled=true")
+@AutoConfigureMockMvc
+public class QueryStatisticsIntegrationTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Qualifier("userRepository")
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserCache userCache;
+
+    @BeforeEach
+    public void setup() {
+        userRepository.deleteAll();
+        userCache.clear();
+    }
+
+    @Test
+    public void getUser_cachedAfterFirstRequest_noQueries() throws Exception {
+        User user = new User();
+        user.setUsername("testUsername");
+        user.setPassword("Passw0rd");
+        long id = userService.createUser(user).getId();
+
+        // the existence check and the lookup share one cache miss
+        assertEquals(1, queryCount("/users/" + id));
+        assertEquals(0, queryCount("/users/" + id));
+    }
+
+    @Test
+    public void getUsers_onePageOneQuery() throws Exception {
+        assertEquals(1, queryCount("/users?limit=10"));
+    }
+
+    private int queryCount(String uri) throws Exception {
+        String header = mockMvc.perform(get(uri))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(QueryStatisticsFilter.QUERY_COUNT_HEADER);
+        assertNotNull(header);
+        return Integer.parseInt(header);
+    }
+}
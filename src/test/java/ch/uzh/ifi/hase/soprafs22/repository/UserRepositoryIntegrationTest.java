@@ -2,16 +2,22 @@ package ch.uzh.ifi.hase.soprafs22.repository;
 
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import org.hibernate.Session;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 
 import java.time.LocalDate;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @DataJpaTest
 public class UserRepositoryIntegrationTest {
@@ -47,4 +53,70 @@ public class UserRepositoryIntegrationTest {
         assertEquals(found.getToken(), user.getToken());
         assertEquals(found.getStatus(), user.getStatus());
     }
+
+    @Test
+    public void findSummariesByIdGreaterThan_returnsNextPage() {
+        // given -> three users
+        User first = persistUser("first", "1");
+        User second = persistUser("second", "2");
+        User third = persistUser("third", "3");
+
+        // when -> page of size one after the first user
+        Slice<UserSummary> page = userRepository.findSummariesByIdGreaterThan(first.getId(), PageRequest.of(0, 1));
+
+        // then -> only the second user, and the slice knows there is more
+        assertEquals(1, page.getNumberOfElements());
+        assertEquals(second.getId(), page.getContent().get(0).getId());
+        assertEquals(second.getUsername(), page.getContent().get(0).getUsername());
+        assertTrue(page.hasNext());
+
+        // when -> page after the last user
+        Slice<UserSummary> last = userRepository.findSummariesByIdGreaterThan(third.getId(), PageRequest.of(0, 1));
+
+        // then
+        assertTrue(last.isEmpty());
+        assertFalse(last.hasNext());
+    }
+
+    @Test
+    public void findSummaryByUsername_noEntityLoaded() {
+        // given
+        User user = persistUser("summarized", "1");
+        entityManager.clear();
+
+        // when
+        UserSummary found = userRepository.findSummaryByUsername("summarized");
+
+        // then -> the exposed columns, and nothing in the persistence context
+        assertEquals(user.getId(), found.getId());
+        assertEquals("summarized", found.getUsername());
+        assertEquals(Boolean.FALSE, found.getStatus());
+        assertEquals(user.getCreationDate(), found.getCreationDate());
+        assertEquals(0, entityManager.getEntityManager().unwrap(Session.class).getStatistics().getEntityCount());
+        assertNull(userRepository.findSummaryByUsername("unknown"));
+    }
+
+    @Test
+    public void persist_idsReservedInBlocks_consecutiveIds() {
+        // given -> ids come from one pooled-lo block of user_sequence
+        User first = persistUser("first", "1");
+        User second = persistUser("second", "2");
+
+        // then
+        assertNotNull(first.getId());
+        assertEquals(first.getId() + 1, second.getId());
+    }
+
+    private User persistUser(String username, String token) {
+        User user = new User();
+        user.setUsername(username);
+        user.setStatus(Boolean.FALSE);
+        user.setToken(token);
+        user.setPassword("Password");
+        user.setCreationDate(LocalDate.now());
+
+        entityManager.persist(user);
+        entityManager.flush();
+        return user;
+    }
 }
@@ -2,11 +2,17 @@ package ch.uzh.ifi.hase.soprafs22.rest.mapper;
 
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPostDTO;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 
+import java.time.LocalDate;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 
 /**
  * DTOMapperTest
@@ -47,4 +53,59 @@ public class DTOMapperTest {
         assertEquals(user.getUsername(), userGetDTO.getUsername());
         assertEquals(user.getStatus(), userGetDTO.getStatus());
     }
+
+    @Test
+    public void testGetUser_fromUserWithToken_tokenNotSerialized() throws JsonProcessingException {
+        // create User with a token
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("firstname@lastname");
+        user.setToken("secret-token");
+
+        // MAP -> Create UserGetDTO, serialized like a GET response body
+        String json = new ObjectMapper().writeValueAsString(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+
+        // check content -> the read representation never carries the token
+        assertFalse(json.contains("token"));
+        assertFalse(json.contains("secret-token"));
+    }
+
+    @Test
+    public void testGetUser_fromUserSummary_toUserGetDTO_success() {
+        // create UserSummary
+        UserSummary userSummary = new UserSummary(1L, "firstname@lastname", Boolean.TRUE,
+                LocalDate.of(2022, 3, 1), LocalDate.of(2000, 1, 31), 2L);
+
+        // MAP -> Create UserGetDTO
+        UserGetDTO userGetDTO = DTOMapper.INSTANCE.convertSummaryToUserGetDTO(userSummary);
+
+        // check content
+        assertEquals(userSummary.getId(), userGetDTO.getId());
+        assertEquals(userSummary.getUsername(), userGetDTO.getUsername());
+        assertEquals(userSummary.getStatus(), userGetDTO.getStatus());
+        assertEquals(userSummary.getCreationDate(), userGetDTO.getCreationDate());
+        assertEquals(userSummary.getBirthday(), userGetDTO.getBirthday());
+    }
+
+    @Test
+    public void testGetUser_fromUserSummary_sameJsonAsFromUser() throws JsonProcessingException {
+        // create User and its projection
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("firstname@lastname");
+        user.setPassword("hash");
+        user.setToken("secret-token");
+        user.setStatus(Boolean.TRUE);
+        user.setCreationDate(LocalDate.of(2022, 3, 1));
+        user.setBirthday(LocalDate.of(2000, 1, 31));
+        user.setVersion(2L);
+
+        // MAP -> Create UserGetDTO both ways, serialized like a GET response body
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        String fromUser = objectMapper.writeValueAsString(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+        String fromSummary = objectMapper.writeValueAsString(DTOMapper.INSTANCE.convertSummaryToUserGetDTO(UserSummary.of(user)));
+
+        // check content -> reading through the projection does not change which fields a response has
+        assertEquals(fromUser, fromSummary);
+    }
 }
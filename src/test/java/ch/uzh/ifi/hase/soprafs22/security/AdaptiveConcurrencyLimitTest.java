@@ -0,0 +1,82 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveConcurrencyLimitTest {
+
+    private final AtomicLong clock = new AtomicLong(1);
+
+    private AdaptiveConcurrencyLimit newLimit(int initialLimit) {
+        return new AdaptiveConcurrencyLimit(initialLimit, 2, 100, 2.0, 2000, 0.5, 1000, clock::get);
+    }
+
+    @Test
+    public void tryAcquire_limitReached_rejected() {
+        AdaptiveConcurrencyLimit limit = newLimit(3);
+
+        List<AdaptiveConcurrencyLimit.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            permits.add(limit.tryAcquire());
+        }
+
+        assertNull(limit.tryAcquire());
+        assertEquals(1, limit.getRejected());
+
+        // a released permit frees its slot, releasing twice has no effect
+        permits.get(0).release(false);
+        permits.get(0).release(false);
+        assertEquals(2, limit.getInFlight());
+        assertNotNull(limit.tryAcquire());
+        assertNull(limit.tryAcquire());
+    }
+
+    @Test
+    public void release_fastAndBusy_limitGrows() {
+        AdaptiveConcurrencyLimit limit = newLimit(4);
+
+        for (int round = 0; round < 20; round++) {
+            List<AdaptiveConcurrencyLimit.Permit> permits = acquireAll(limit);
+            clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+            permits.forEach(permit -> permit.release(false));
+        }
+
+        assertTrue(limit.getLimit() > 4, "limit: " + limit.getLimit());
+    }
+
+    @Test
+    public void release_slowOrDropped_limitShrinksOncePerRoundTrip() {
+        AdaptiveConcurrencyLimit limit = newLimit(16);
+
+        // baseline of 10ms
+        AdaptiveConcurrencyLimit.Permit permit = limit.tryAcquire();
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+        permit.release(false);
+
+        // all requests of the round are slow, the limit is only halved once
+        List<AdaptiveConcurrencyLimit.Permit> permits = acquireAll(limit);
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(50));
+        permits.forEach(slow -> slow.release(false));
+        assertEquals(8, limit.getLimit());
+
+        // a dropped request of the next round halves it again
+        clock.incrementAndGet();
+        limit.tryAcquire().release(true);
+        assertEquals(4, limit.getLimit());
+    }
+
+    private static List<AdaptiveConcurrencyLimit.Permit> acquireAll(AdaptiveConcurrencyLimit limit) {
+        List<AdaptiveConcurrencyLimit.Permit> permits = new ArrayList<>();
+        AdaptiveConcurrencyLimit.Permit permit;
+        while ((permit = limit.tryAcquire()) != null) {
+            permits.add(permit);
+        }
+        return permits;
+    }
+}
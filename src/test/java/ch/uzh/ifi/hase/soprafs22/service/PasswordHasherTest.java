@@ -0,0 +1,72 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PasswordHasherTest {
+
+    private PasswordHasher passwordHasher;
+
+    @BeforeEach
+    public void setup() {
+        // lowest cost, the tests only check correctness
+        passwordHasher = new PasswordHasher(4, 2, 16, Runnable::run);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        passwordHasher.shutdown();
+    }
+
+    @Test
+    public void hash_thenMatches_success() {
+        String hash = passwordHasher.hash("Passw0rd").join();
+
+        assertNotEquals("Passw0rd", hash);
+        assertTrue(hash.startsWith("$2a$04$"));
+        assertTrue(passwordHasher.matches("Passw0rd", hash).join());
+        assertFalse(passwordHasher.matches("wrong", hash).join());
+    }
+
+    @Test
+    public void hash_null_staysNull() {
+        assertNull(passwordHasher.hash(null).join());
+    }
+
+    @Test
+    public void hash_blank_notHashed() {
+        // left for the signup to reject, a hash would look like a real password
+        assertEquals("  ", passwordHasher.hash("  ").join());
+        assertEquals(Arrays.asList("", null), passwordHasher.hashAll(Arrays.asList("", null)).join());
+    }
+
+    @Test
+    public void matches_storedValueNotBcrypt_rejected() {
+        // a plain text value never matches, not even the identical password
+        assertFalse(passwordHasher.matches("Passw0rd", "Passw0rd").join());
+        assertFalse(passwordHasher.matches("wrong", "Passw0rd").join());
+        assertFalse(passwordHasher.matches(null, "Passw0rd").join());
+        assertFalse(passwordHasher.matches("Passw0rd", null).join());
+    }
+
+    @Test
+    public void hashAll_keepsOrder() {
+        List<String> passwords = Arrays.asList("first", null, "third", "fourth", "fifth");
+
+        List<String> hashes = passwordHasher.hashAll(passwords).join();
+
+        assertEquals(passwords.size(), hashes.size());
+        assertNull(hashes.get(1));
+        for (int i = 0; i < passwords.size(); i++) {
+            if (passwords.get(i) != null) {
+                assertTrue(passwordHasher.matches(passwords.get(i), hashes.get(i)).join());
+            }
+        }
+    }
+}
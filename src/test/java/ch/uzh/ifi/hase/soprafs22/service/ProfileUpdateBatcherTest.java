@@ -0,0 +1,136 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProfileUpdateBatcherTest {
+
+    private final PlatformTransactionManager transactionManager = Mockito.mock(PlatformTransactionManager.class);
+
+    private ProfileUpdateBatcher profileUpdateBatcher;
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        profileUpdateBatcher.stop();
+    }
+
+    @Test
+    public void execute_groupCommitDisabled_oneTransactionPerUpdate() {
+        profileUpdateBatcher = new ProfileUpdateBatcher(transactionManager, false, 64, 5, 100, 10000);
+        profileUpdateBatcher.start();
+        AtomicInteger applied = new AtomicInteger();
+
+        profileUpdateBatcher.execute(applied::incrementAndGet);
+        profileUpdateBatcher.execute(applied::incrementAndGet);
+
+        assertEquals(2, applied.get());
+        Mockito.verify(transactionManager, Mockito.times(2)).getTransaction(Mockito.any());
+        assertEquals(2, profileUpdateBatcher.getBatches());
+    }
+
+    @Test
+    public void execute_groupCommitEnabled_updatesShareTransactions() throws Exception {
+        profileUpdateBatcher = new ProfileUpdateBatcher(transactionManager, true, 64, 50, 1000, 10000);
+        profileUpdateBatcher.start();
+        AtomicInteger applied = new AtomicInteger();
+
+        // when -> many concurrent callers
+        ExecutorService callers = Executors.newFixedThreadPool(16);
+        List<CompletableFuture<Void>> calls = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            calls.add(CompletableFuture.runAsync(() -> profileUpdateBatcher.execute(applied::incrementAndGet), callers));
+        }
+        CompletableFuture.allOf(calls.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        callers.shutdown();
+
+        // then -> all applied and acknowledged, with fewer commits than updates
+        assertEquals(200, applied.get());
+        assertEquals(200, profileUpdateBatcher.getUpdates());
+        assertTrue(profileUpdateBatcher.getBatches() < 200);
+    }
+
+    @Test
+    public void execute_groupCommitEnabled_failingUpdateOnlyFailsItsCaller() throws Exception {
+        profileUpdateBatcher = new ProfileUpdateBatcher(transactionManager, true, 64, 50, 1000, 10000);
+        profileUpdateBatcher.start();
+        AtomicInteger applied = new AtomicInteger();
+
+        CompletableFuture<Void> good = CompletableFuture.runAsync(() -> profileUpdateBatcher.execute(applied::incrementAndGet));
+        CompletableFuture<Void> bad = CompletableFuture.runAsync(() -> profileUpdateBatcher.execute(() -> {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
+        }));
+
+        good.get(10, TimeUnit.SECONDS);
+        Exception failure = assertThrows(Exception.class, () -> bad.get(10, TimeUnit.SECONDS));
+        assertTrue(failure.getCause() instanceof ResponseStatusException);
+        assertTrue(applied.get() >= 1);
+    }
+
+    @Test
+    public void execute_groupCommitEnabled_errorFailsItsBatchWorkerContinues() throws Exception {
+        profileUpdateBatcher = new ProfileUpdateBatcher(transactionManager, true, 64, 50, 1000, 10000);
+        profileUpdateBatcher.start();
+        AtomicInteger applied = new AtomicInteger();
+
+        CompletableFuture<Void> broken = CompletableFuture.runAsync(() -> profileUpdateBatcher.execute(() -> {
+            throw new StackOverflowError();
+        }));
+
+        assertThrows(Exception.class, () -> broken.get(10, TimeUnit.SECONDS));
+        // the worker survived the Error, later updates are still committed
+        CompletableFuture.runAsync(() -> profileUpdateBatcher.execute(applied::incrementAndGet)).get(10, TimeUnit.SECONDS);
+        assertEquals(1, applied.get());
+    }
+
+    @Test
+    public void execute_groupCommitEnabled_notCommittedInTime_serviceUnavailable() {
+        profileUpdateBatcher = new ProfileUpdateBatcher(transactionManager, true, 64, 5, 1000, 100);
+        profileUpdateBatcher.start();
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                    () -> profileUpdateBatcher.execute(() -> awaitQuietly(release)));
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exception.getStatus());
+        }
+        finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void execute_afterStop_runsInCallingThread() throws InterruptedException {
+        profileUpdateBatcher = new ProfileUpdateBatcher(transactionManager, true, 64, 50, 1000, 10000);
+        profileUpdateBatcher.start();
+        profileUpdateBatcher.stop();
+        AtomicInteger applied = new AtomicInteger();
+
+        profileUpdateBatcher.execute(applied::incrementAndGet);
+
+        assertEquals(1, applied.get());
+        assertEquals(0, profileUpdateBatcher.getQueued());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
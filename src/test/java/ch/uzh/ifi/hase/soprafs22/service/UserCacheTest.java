@@ -0,0 +1,97 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserCacheTest {
+
+    private UserCache userCache;
+
+    private User testUser;
+
+    @BeforeEach
+    public void setup() {
+        userCache = new UserCache(100, 60);
+
+        testUser = new User();
+        testUser.setId(1L);
+        testUser.setUsername("testUsername");
+        testUser.setPassword("Password");
+        testUser.setStatus(Boolean.FALSE);
+    }
+
+    @Test
+    public void getById_secondLookup_isServedFromCache() {
+        AtomicInteger loads = new AtomicInteger();
+
+        User first = userCache.getById(1L, id -> { loads.incrementAndGet(); return testUser; });
+        User second = userCache.getById(1L, id -> { loads.incrementAndGet(); return testUser; });
+
+        // then -> loaded once, the cached value is a copy and not the entity itself
+        assertEquals(1, loads.get());
+        assertNotSame(testUser, first);
+        assertSame(first, second);
+        assertEquals(testUser.getUsername(), second.getUsername());
+        assertEquals(1, userCache.getByIdStats().hitCount());
+        assertEquals(1, userCache.getByIdStats().missCount());
+    }
+
+    @Test
+    public void getByUsername_unknownUser_isNotCached() {
+        AtomicInteger loads = new AtomicInteger();
+
+        assertNull(userCache.getByUsername("unknown", username -> { loads.incrementAndGet(); return null; }));
+        assertNull(userCache.getByUsername("unknown", username -> { loads.incrementAndGet(); return null; }));
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void evict_removesBothEntries() {
+        userCache.getById(1L, id -> testUser);
+        userCache.getByUsername("testUsername", username -> testUser);
+
+        // when -> the user changes
+        userCache.evict(1L, "testUsername");
+        testUser.setStatus(Boolean.TRUE);
+
+        // then -> the next lookups see the new state
+        assertEquals(Boolean.TRUE, userCache.getById(1L, id -> testUser).getStatus());
+        assertEquals(Boolean.TRUE, userCache.getByUsername("testUsername", username -> testUser).getStatus());
+    }
+
+    @Test
+    public void getSummaryById_fullUserCached_noLoad() {
+        AtomicInteger loads = new AtomicInteger();
+        userCache.getById(1L, id -> testUser);
+
+        UserSummary summary = userCache.getSummaryById(1L, id -> { loads.incrementAndGet(); return null; });
+
+        // then -> taken from the cached full user, the stats of the full cache are unchanged
+        assertEquals(0, loads.get());
+        assertEquals("testUsername", summary.getUsername());
+        assertEquals(0, userCache.getByIdStats().hitCount());
+    }
+
+    @Test
+    public void evict_removesSummaries() {
+        AtomicInteger loads = new AtomicInteger();
+        UserSummary summary = UserSummary.of(testUser);
+        userCache.getSummaryById(1L, id -> { loads.incrementAndGet(); return summary; });
+        userCache.getSummaryByUsername("testUsername", username -> { loads.incrementAndGet(); return summary; });
+
+        // when -> the user changes
+        userCache.evict(1L, "testUsername");
+        userCache.getSummaryById(1L, id -> { loads.incrementAndGet(); return summary; });
+        userCache.getSummaryByUsername("testUsername", username -> { loads.incrementAndGet(); return summary; });
+
+        // then -> both loaded again
+        assertEquals(4, loads.get());
+    }
+}
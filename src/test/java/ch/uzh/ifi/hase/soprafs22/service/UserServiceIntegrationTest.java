@@ -3,14 +3,21 @@ package ch.uzh.ifi.hase.soprafs22.service;
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
 import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -29,9 +36,16 @@ public class UserServiceIntegrationTest {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private UserCache userCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @BeforeEach
     public void setup() {
         userRepository.deleteAll();
+        userCache.clear();
     }
 
     @Test
@@ -71,8 +85,118 @@ public class UserServiceIntegrationTest {
         // change the name but forget about the username
         //testUser2.setName("testName2");
         testUser2.setUsername("testUsername");
+        testUser2.setPassword("Passw0rd");
 
         // check that an error is thrown
-        assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser2));
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser2));
+        assertEquals(HttpStatus.CONFLICT, exception.getStatus());
+    }
+
+    @Test
+    public void createUser_noPassword_badRequest() {
+        User testUser = new User();
+        testUser.setUsername("withoutPassword");
+
+        // rejected before the insert, not by the not-null constraint of the password
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser));
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+        assertNull(userRepository.findByUsername("withoutPassword"));
+    }
+
+    @Test
+    public void exportUsers_streamsAllUsersInIdOrder() {
+        // given
+        for (String username : new String[] {"first", "second", "third"}) {
+            User user = new User();
+            user.setUsername(username);
+            user.setPassword("Passw0rd");
+            userService.createUser(user);
+        }
+
+        // when
+        List<String> exported = new ArrayList<>();
+        userService.exportUsers(user -> exported.add(user.getUsername()));
+
+        // then
+        assertEquals(Arrays.asList("first", "second", "third"), exported);
+    }
+
+    @Test
+    public void updateUsername_cachedUser_oldNameNoLongerFound() {
+        User testUser = new User();
+        testUser.setUsername("testUsername");
+        testUser.setPassword("Passw0rd");
+        User createdUser = userService.createUser(testUser);
+
+        // the lookup puts the user into the cache
+        assertNotNull(userService.getUserByUsername("testUsername"));
+
+        // when
+        userService.updateUsername(createdUser.getId(), "renamed");
+
+        // then
+        assertNull(userService.getUserByUsername("testUsername"));
+        assertEquals("renamed", userService.getUserById(createdUser.getId()).getUsername());
+    }
+
+    @Test
+    public void createUsers_mixedBatch_perItemResults() {
+        // given -> one user exists already
+        User existing = new User();
+        existing.setUsername("existing");
+        existing.setPassword("Passw0rd");
+        userService.createUser(existing);
+
+        List<User> batch = new ArrayList<>();
+        for (String username : new String[] {"first", "existing", "first", "second", null}) {
+            User user = new User();
+            user.setUsername(username);
+            user.setPassword("Passw0rd");
+            batch.add(user);
+        }
+
+        // when
+        List<UserBatchResult> results = userService.createUsers(batch);
+
+        // then -> created, taken, taken within the batch, created, invalid
+        assertEquals(5, results.size());
+        assertEquals(HttpStatus.CREATED, results.get(0).getStatus());
+        assertEquals(HttpStatus.CONFLICT, results.get(1).getStatus());
+        assertEquals(HttpStatus.CONFLICT, results.get(2).getStatus());
+        assertEquals(HttpStatus.CREATED, results.get(3).getStatus());
+        assertEquals(HttpStatus.BAD_REQUEST, results.get(4).getStatus());
+        assertNotNull(results.get(0).getUser().getId());
+        assertNotNull(userRepository.findByUsername("first"));
+        assertNotNull(userRepository.findByUsername("second"));
+        assertEquals(3, userRepository.count());
+    }
+
+    @Test
+    public void updateStatus_flushPresence_statusWritten() {
+        User testUser = new User();
+        testUser.setUsername("testUsername");
+        testUser.setPassword("Passw0rd");
+        User createdUser = userService.createUser(testUser);
+
+        // when -> toggled in memory, visible right away
+        userService.updateStatus(createdUser.getId());
+        assertEquals(Boolean.TRUE, userService.getUserById(createdUser.getId()).getStatus());
+
+        // then -> in the database after the flush
+        userService.flushPresence();
+        assertEquals(Boolean.TRUE, userRepository.findById((long) createdUser.getId()).getStatus());
+    }
+
+    @Test
+    public void createUser_timed() {
+        User testUser = new User();
+        testUser.setUsername("testUsername");
+        testUser.setPassword("Passw0rd");
+
+        userService.createUser(testUser);
+
+        Timer timer = meterRegistry.find("users.service").tag("method", "createUser").timer();
+        assertNotNull(timer);
+        assertTrue(timer.count() >= 1);
     }
 }
@@ -3,14 +3,22 @@ package ch.uzh.ifi.hase.soprafs22.service;
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
 import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.repository.UserTableState;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class UserServiceTest {
@@ -18,6 +26,33 @@ public class UserServiceTest {
     @Mock
     private UserRepository userRepository;
 
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Spy
+    private UserCache userCache = new UserCache(100, 60);
+
+    @Spy
+    private UsernameFilter usernameFilter = new UsernameFilter(1000, 0.01);
+
+    @Spy
+    private TokenIndex tokenIndex = new TokenIndex(100);
+
+    @Spy
+    private PresenceRegistry presenceRegistry = new PresenceRegistry();
+
+    @Spy
+    private UserListVersion userListVersion = new UserListVersion();
+
+    @Spy
+    private UsernamePrefixIndex usernamePrefixIndex = new UsernamePrefixIndex();
+
+    @Spy
+    private UsernameTrigramIndex usernameTrigramIndex = new UsernameTrigramIndex(0.2);
+
+    @Spy
+    private WarmStartSnapshot warmStartSnapshot = new WarmStartSnapshot("");
+
     @InjectMocks
     private UserService userService;
 
@@ -79,5 +114,141 @@ public class UserServiceTest {
         assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser));
     }
 
+    @Test
+    public void loadUsernames_snapshotMatchesTable_usernamesFromSnapshot() {
+        UserTableState tableState = new UserTableState(2L, 2L, 0L, 7L);
+        Mockito.doReturn(new WarmStartSnapshot.Contents(tableState, List.of("anna", "ben"), List.of()))
+                .when(warmStartSnapshot).consume();
+        Mockito.when(userRepository.getTableState()).thenReturn(new UserTableState(2L, 2L, 0L, 7L));
+
+        userService.loadUsernames();
+
+        // then -> the usernames are not read from the database
+        Mockito.verify(userRepository, Mockito.never()).streamAllUsernames();
+        assertEquals(List.of("ben"), userService.searchUsernames("b", 10));
+    }
+
+    @Test
+    public void loadUsernames_tableChangedSameCount_rebuiltFromDatabase() {
+        // "ben" was deleted and "carl" inserted while the application was down: same count, but a new max id
+        Mockito.doReturn(new WarmStartSnapshot.Contents(new UserTableState(2L, 2L, 0L, 7L), List.of("anna", "ben"), List.of()))
+                .when(warmStartSnapshot).consume();
+        Mockito.when(userRepository.getTableState()).thenReturn(new UserTableState(2L, 3L, 0L, 8L));
+        Mockito.when(userRepository.streamAllUsernames()).thenReturn(Stream.of("anna", "carl"));
+
+        userService.loadUsernames();
+
+        // then -> the stale snapshot is ignored
+        assertEquals(List.of("carl"), userService.searchUsernames("c", 10));
+        assertTrue(userService.searchUsernames("b", 10).isEmpty());
+    }
+
+    @Test
+    public void getUserById_repeatedLookup_hitsRepositoryOnce() {
+        Mockito.when(userRepository.findById(1L)).thenReturn(testUser);
+
+        userService.getUserById(1L);
+        User found = userService.getUserById(1L);
+
+        Mockito.verify(userRepository, Mockito.times(1)).findById(1L);
+        assertEquals(testUser.getUsername(), found.getUsername());
+    }
+
+    @Test
+    public void updateStatus_togglesInMemoryWithoutWrite() {
+        testUser.setStatus(Boolean.FALSE);
+        Mockito.when(userRepository.findById(1L)).thenReturn(testUser);
+
+        // when -> toggled twice
+        userService.updateStatus(1L);
+        assertEquals(Boolean.TRUE, userService.getUserById(1L).getStatus());
+        userService.updateStatus(1L);
+
+        // then -> the reads see the new status, nothing was written yet
+        assertEquals(Boolean.FALSE, userService.getUserById(1L).getStatus());
+        Mockito.verify(userRepository, Mockito.never()).flush();
+        Mockito.verify(userRepository, Mockito.never()).updateStatus(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void getUserById_afterToggle_cachedSnapshotUnchanged() {
+        testUser.setStatus(Boolean.FALSE);
+        Mockito.when(userRepository.findById(1L)).thenReturn(testUser);
+        User cached = userService.getUserById(1L);
+
+        // when -> toggled in the registry only
+        userService.updateStatus(1L);
+        User read = userService.getUserById(1L);
+
+        // then -> the read sees the new status on a copy, the snapshot shared by all readers is not written
+        assertEquals(Boolean.TRUE, read.getStatus());
+        assertNotSame(cached, read);
+        assertEquals(Boolean.FALSE, cached.getStatus());
+        assertEquals(Boolean.FALSE, userCache.getById(1L, id -> null).getStatus());
+    }
+
+    @Test
+    public void updateStatus_publishesChange() {
+        testUser.setStatus(Boolean.FALSE);
+        Mockito.when(userRepository.findById(1L)).thenReturn(testUser);
+
+        userService.updateStatus(1L);
+
+        // then -> one STATUS event with the new status
+        ArgumentCaptor<UserChangeEvent> event = ArgumentCaptor.forClass(UserChangeEvent.class);
+        Mockito.verify(eventPublisher).publishEvent(event.capture());
+        assertEquals(UserChangeEvent.Type.STATUS, event.getValue().getType());
+        assertEquals(1L, event.getValue().getId());
+        assertEquals(Boolean.TRUE, event.getValue().getStatus());
+    }
+
+    @Test
+    public void flushPresence_writesChangedStatuses() {
+        testUser.setStatus(Boolean.FALSE);
+        Mockito.when(userRepository.findById(1L)).thenReturn(testUser);
+        userService.updateStatus(1L);
+
+        // when
+        userService.flushPresence();
+        userService.flushPresence();
+
+        // then -> written once, the second flush has nothing to do
+        Mockito.verify(userRepository, Mockito.times(1)).updateStatus(Boolean.TRUE, Collections.singletonList(1L));
+        Mockito.verify(userRepository, Mockito.never()).updateStatus(Mockito.eq(Boolean.FALSE), Mockito.any());
+    }
+
+    @Test
+    public void createUser_usernameNotInFilter_skipsDatabaseCheck() {
+        usernameFilter.markLoaded();
+
+        userService.createUser(testUser);
+
+        // the filter knows the name is free -> no lookup, and the new name is added to the filter
+        Mockito.verify(userRepository, Mockito.never()).findByUsername(Mockito.any());
+        assertTrue(usernameFilter.mightContain("testUsername"));
+    }
 
+    @Test
+    public void getUserIdByToken_createdUser_servedFromIndex() {
+        User createdUser = userService.createUser(testUser);
+
+        // the token of a new user is indexed on signup -> no database lookup
+        assertEquals(1L, userService.getUserIdByToken(createdUser.getToken()));
+        Mockito.verify(userRepository, Mockito.never()).findByToken(Mockito.any());
+    }
+
+    @Test
+    public void getUserIdByToken_unknownToken_returnsNull() {
+        assertNull(userService.getUserIdByToken("unknown"));
+        Mockito.verify(userRepository, Mockito.times(1)).findByToken("unknown");
+    }
+
+    @Test
+    public void createUser_bumpsUserListVersion() {
+        String before = userService.getUsersVersion();
+
+        userService.createUser(testUser);
+
+        assertNotEquals(before, userService.getUsersVersion());
+    }
 }
@@ -0,0 +1,47 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UsernameFilterTest {
+
+    @Test
+    public void mightContain_beforeLoaded_alwaysTrue() {
+        UsernameFilter usernameFilter = new UsernameFilter(1000, 0.01);
+
+        assertTrue(usernameFilter.mightContain("testUsername"));
+    }
+
+    @Test
+    public void mightContain_putUsernames_neverFalseNegative() {
+        UsernameFilter usernameFilter = new UsernameFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            usernameFilter.put("user" + i);
+        }
+        usernameFilter.markLoaded();
+
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(usernameFilter.mightContain("user" + i));
+        }
+    }
+
+    @Test
+    public void mightContain_unknownUsernames_fewFalsePositives() {
+        UsernameFilter usernameFilter = new UsernameFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            usernameFilter.put("user" + i);
+        }
+        usernameFilter.markLoaded();
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (usernameFilter.mightContain("other" + i)) {
+                falsePositives++;
+            }
+        }
+
+        // configured for 1%, allow some slack
+        assertTrue(falsePositives < 300, "false positives: " + falsePositives);
+    }
+}
@@ -0,0 +1,46 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UsernamePrefixIndexTest {
+
+    @Test
+    public void search_prefix_alphabeticalIgnoringCase() {
+        UsernamePrefixIndex usernamePrefixIndex = new UsernamePrefixIndex();
+        for (String username : Arrays.asList("bob", "Anna", "andreas", "annabelle", "ben")) {
+            usernamePrefixIndex.put(username);
+        }
+
+        assertEquals(Arrays.asList("andreas", "Anna", "annabelle"), usernamePrefixIndex.search("an", 10));
+        assertEquals(Arrays.asList("Anna", "annabelle"), usernamePrefixIndex.search("ANN", 10));
+        assertEquals(Collections.emptyList(), usernamePrefixIndex.search("c", 10));
+    }
+
+    @Test
+    public void search_limit_topK() {
+        UsernamePrefixIndex usernamePrefixIndex = new UsernamePrefixIndex();
+        for (int i = 0; i < 1000; i++) {
+            usernamePrefixIndex.load(String.format("user%04d", i));
+        }
+
+        assertEquals(Arrays.asList("user0000", "user0001", "user0002"), usernamePrefixIndex.search("user", 3));
+        assertEquals(10, usernamePrefixIndex.search("user01", 100).size());
+    }
+
+    @Test
+    public void rename_oldNameGone() {
+        UsernamePrefixIndex usernamePrefixIndex = new UsernamePrefixIndex();
+        usernamePrefixIndex.put("oldName");
+
+        usernamePrefixIndex.rename("oldName", "newName");
+
+        assertEquals(Collections.emptyList(), usernamePrefixIndex.search("old", 10));
+        assertEquals(Collections.singletonList("newName"), usernamePrefixIndex.search("new", 10));
+        assertEquals(1, usernamePrefixIndex.size());
+    }
+}
@@ -0,0 +1,71 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UsernameTrigramIndexTest {
+
+    @Test
+    public void trigrams_paddedLowerCase() {
+        assertEquals(Arrays.asList("  a", " ab", "ab "), List.copyOf(UsernameTrigramIndex.trigrams("Ab")));
+    }
+
+    @Test
+    public void search_typo_rankedBySimilarity() {
+        UsernameTrigramIndex usernameTrigramIndex = new UsernameTrigramIndex(0.2);
+        for (String username : Arrays.asList("john", "johnny", "joanna", "peter", "jon")) {
+            usernameTrigramIndex.put(username);
+        }
+
+        List<String> results = usernameTrigramIndex.search("jonh", 10);
+
+        // "jon" shares 3 of its 4 trigrams with the query, "john" 2 of 5
+        assertEquals(Arrays.asList("jon", "john"), results.subList(0, 2));
+        assertFalse(results.contains("peter"));
+    }
+
+    @Test
+    public void search_limit_bestMatchesOnly() {
+        UsernameTrigramIndex usernameTrigramIndex = new UsernameTrigramIndex(0.1);
+        for (int i = 0; i < 1000; i++) {
+            usernameTrigramIndex.load("user" + i);
+        }
+
+        assertEquals(Arrays.asList("user42", "user420", "user421"), usernameTrigramIndex.search("user42", 3));
+    }
+
+    @Test
+    public void rename_oldNameGone() {
+        UsernameTrigramIndex usernameTrigramIndex = new UsernameTrigramIndex(0.2);
+        usernameTrigramIndex.put("oldName");
+
+        usernameTrigramIndex.rename("oldName", "newName");
+
+        assertEquals(Collections.singletonList("newName"), usernameTrigramIndex.search("newNme", 10));
+        assertFalse(usernameTrigramIndex.search("oldName", 10).contains("oldName"));
+        assertEquals(1, usernameTrigramIndex.size());
+    }
+
+    @Test
+    public void rename_manyTimes_indexDoesNotGrow() {
+        UsernameTrigramIndex usernameTrigramIndex = new UsernameTrigramIndex(0.2);
+        usernameTrigramIndex.put("stable");
+        usernameTrigramIndex.put("churn0");
+
+        for (int i = 1; i <= 1000; i++) {
+            usernameTrigramIndex.rename("churn" + (i - 1), "churn" + i);
+        }
+
+        // only the postings of the two current usernames, at most as many gaps as usernames
+        assertEquals(UsernameTrigramIndex.trigrams("stable").size() + UsernameTrigramIndex.trigrams("churn1000").size(),
+                usernameTrigramIndex.postingCount());
+        assertTrue(usernameTrigramIndex.idCount() <= 2 * usernameTrigramIndex.size());
+        assertEquals("churn1000", usernameTrigramIndex.search("churn1000", 1).get(0));
+        assertEquals("stable", usernameTrigramIndex.search("stabel", 1).get(0));
+    }
+}
@@ -0,0 +1,54 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.repository.UserTableState;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WarmStartSnapshotTest {
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    public void consume_afterWrite_sameContentsOnce() throws IOException {
+        Path path = dataDir.resolve("warm-start.snapshot");
+        WarmStartSnapshot warmStartSnapshot = new WarmStartSnapshot(path.toString());
+        UserTableState tableState = new UserTableState(3L, 7L, 12L, 13L);
+        warmStartSnapshot.write(new WarmStartSnapshot.Contents(tableState, Arrays.asList("anna", "Ben", "chlo\u00e9"),
+                List.of(2L, 3L)));
+
+        WarmStartSnapshot.Contents contents = warmStartSnapshot.consume();
+
+        assertEquals(tableState, contents.getTableState());
+        assertEquals(Arrays.asList("anna", "Ben", "chlo\u00e9"), contents.getUsernames());
+        assertEquals(List.of(2L, 3L), contents.getHotUserIds());
+        // consumed: the next start rebuilds from the database unless there was another clean shutdown
+        assertFalse(Files.exists(path));
+        assertNull(warmStartSnapshot.consume());
+    }
+
+    @Test
+    public void consume_unknownFormat_null() throws IOException {
+        Path path = dataDir.resolve("warm-start.snapshot");
+        Files.write(path, new byte[] {1, 2, 3, 4, 5});
+
+        assertNull(new WarmStartSnapshot(path.toString()).consume());
+        assertFalse(Files.exists(path));
+    }
+
+    @Test
+    public void disabled_emptyPath() {
+        WarmStartSnapshot warmStartSnapshot = new WarmStartSnapshot("");
+
+        assertFalse(warmStartSnapshot.isEnabled());
+        assertNull(warmStartSnapshot.consume());
+    }
+}